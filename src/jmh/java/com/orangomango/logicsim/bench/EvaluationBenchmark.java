@@ -0,0 +1,87 @@
+package com.orangomango.logicsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.orangomango.logicsim.engine.*;
+
+/**
+ * Steady-state throughput of the engines while the inputs keep changing.
+ * The evaluations counter reports the cell evaluations per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluationBenchmark{
+	@Param({"adder.lsimc", "4bAdder.lsimc", "alu.lsimc", "doubleDabble.lsimc", "example.lsim"})
+	public String file;
+
+	private NetlistLoader loader;
+	private Netlist netlist;
+	private BitParallelEvaluator bitParallel;
+	private ParallelEvaluator parallel;
+	private long vector;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters{
+		public long evaluations;
+	}
+
+	@Setup
+	public void setup() throws IOException{
+		this.loader = new NetlistLoader(Examples.get(this.file));
+		this.netlist = this.loader.getNetlist();
+		this.bitParallel = new BitParallelEvaluator(this.netlist);
+		this.parallel = new ParallelEvaluator(this.netlist);
+	}
+
+	/**
+	 * One input vector per operation, every vector is the next binary number
+	 */
+	@Benchmark
+	public boolean eventDriven(Counters counters){
+		int[] inputs = this.loader.getInputDrivers();
+		long v = this.vector++;
+		for (int i = 0; i < inputs.length; i++){
+			this.netlist.setInput(inputs[i], ((v >>> i) & 1) != 0);
+		}
+		long before = this.netlist.getEvaluationCount();
+		boolean stable = this.netlist.evaluate();
+		this.netlist.clearChanged();
+		counters.evaluations += this.netlist.getEvaluationCount()-before;
+		return stable;
+	}
+
+	/**
+	 * 64 input vectors per operation
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BitParallelEvaluator.LANES)
+	public long bitParallel(){
+		return evaluate(this.bitParallel);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BitParallelEvaluator.LANES)
+	public long forkJoin(){
+		return evaluate(this.parallel);
+	}
+
+	private long evaluate(BitParallelEvaluator evaluator){
+		int[] inputs = this.loader.getInputDrivers();
+		long seed = this.vector++*0x9E3779B97F4A7C15L;
+		for (int i = 0; i < inputs.length; i++){
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			evaluator.setInput(inputs[i], seed);
+		}
+		return evaluator.evaluate();
+	}
+}
@@ -0,0 +1,52 @@
+package com.orangomango.logicsim.bench;
+
+import java.io.File;
+import java.util.*;
+
+import com.orangomango.logicsim.MainApplication;
+import com.orangomango.logicsim.core.*;
+import com.orangomango.logicsim.engine.Simulator;
+
+/**
+ * Access to the example circuits used by the benchmarks
+ */
+final class Examples{
+	public static final int SETTLE_TICKS = 100000; // Feedback loops may never settle
+
+	private Examples(){
+	}
+
+	public static File get(String name){
+		return new File(System.getProperty("logicsim.examples", "examples"), name);
+	}
+
+	/**
+	 * Load the gates of a file, the simulator is put in simulated mode and the circuit is settled
+	 */
+	public static List<Gate> load(String name, List<Wire> wires){
+		Simulator simulator = Simulator.getInstance();
+		if (simulator.getMode() != Simulator.Mode.SIMULATED){
+			simulator.setMode(Simulator.Mode.SIMULATED);
+		}
+		simulator.clear();
+		Pin.PIN_ID = 0;
+		List<Gate> gates = new ArrayList<>();
+		if (MainApplication.load(get(name), null, gates, wires) == null){
+			throw new IllegalStateException("Could not load "+name);
+		}
+		simulator.settle(SETTLE_TICKS);
+		return gates;
+	}
+
+	/**
+	 * @return the top-level switches, sorted from top to bottom
+	 */
+	public static List<Switch> getSwitches(List<Gate> gates){
+		List<Switch> switches = new ArrayList<>();
+		for (Gate g : gates){
+			if (g instanceof Switch) switches.add((Switch)g);
+		}
+		switches.sort((s1, s2) -> Double.compare(s1.getRect().getMinY(), s2.getRect().getMinY()));
+		return switches;
+	}
+}
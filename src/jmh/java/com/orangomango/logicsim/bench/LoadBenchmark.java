@@ -0,0 +1,79 @@
+package com.orangomango.logicsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+import com.orangomango.logicsim.MainApplication;
+import com.orangomango.logicsim.core.*;
+import com.orangomango.logicsim.engine.*;
+import com.orangomango.logicsim.io.*;
+
+/**
+ * Time needed to turn a file into gates (what the UI does) or into a netlist (headless)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark{
+	@Param({"adder.lsimc", "4bAdder.lsimc", "alu.lsimc", "doubleDabble.lsimc", "example.lsim"})
+	public String file;
+
+	private File path;
+	private String text;
+
+	@Setup
+	public void setup() throws IOException{
+		Simulator.getInstance().setMode(Simulator.Mode.SIMULATED);
+		this.path = Examples.get(this.file);
+		this.text = Files.readString(this.path.toPath());
+	}
+
+	@TearDown(Level.Invocation)
+	public void discard(){
+		Simulator.getInstance().clear(); // Loading schedules every gate
+	}
+
+	/**
+	 * Parse and build the gates, the chip definitions are cached after the first iteration
+	 */
+	@Benchmark
+	public List<Gate> loadGates(){
+		Pin.PIN_ID = 0;
+		List<Gate> gates = new ArrayList<>();
+		List<Wire> wires = new ArrayList<>();
+		MainApplication.load(new JSONObject(this.text), this.path, null, gates, wires);
+		return gates;
+	}
+
+	@Benchmark
+	public List<Gate> loadGatesColdCache(){
+		ChipDefinition.clearCache();
+		return loadGates();
+	}
+
+	/**
+	 * Parsing only, through the JSON tree or streamed from the file
+	 */
+	@Benchmark
+	public CircuitData parseTree(){
+		return CircuitData.fromJSON(new JSONObject(this.text));
+	}
+
+	@Benchmark
+	public CircuitData parseStream() throws IOException{
+		return JsonFormat.read(this.path);
+	}
+
+	@Benchmark
+	public Netlist loadNetlist() throws IOException{
+		return new NetlistLoader(this.path).getNetlist();
+	}
+}
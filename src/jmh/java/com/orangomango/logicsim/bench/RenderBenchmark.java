@@ -0,0 +1,94 @@
+package com.orangomango.logicsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.orangomango.logicsim.core.*;
+
+/**
+ * Off-screen rendering of every gate and wire of a circuit.
+ * Rasterizing needs the JavaFX toolkit and so a display (xvfb-run works),
+ * -Dprism.order=sw is enough on machines without a GPU.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark{
+	private static final int WIDTH = 1600, HEIGHT = 1200;
+
+	@Param({"adder.lsimc", "4bAdder.lsimc", "alu.lsimc", "doubleDabble.lsimc", "example.lsim"})
+	public String file;
+
+	private List<Gate> gates;
+	private List<Wire> wires = new ArrayList<>();
+	private Canvas canvas;
+	private GraphicsContext gc;
+	private WritableImage image;
+
+	@State(Scope.Benchmark)
+	public static class Toolkit{
+		@Setup
+		public void setup() throws InterruptedException{
+			CountDownLatch latch = new CountDownLatch(1);
+			try {
+				Platform.startup(latch::countDown);
+			} catch (IllegalStateException ex){
+				latch.countDown(); // Already started
+			}
+			latch.await();
+		}
+
+		@TearDown
+		public void tearDown(){
+			Platform.exit();
+		}
+	}
+
+	@Setup
+	public void setup(){
+		this.gates = Examples.load(this.file, this.wires);
+		this.canvas = new Canvas(WIDTH, HEIGHT);
+		this.gc = this.canvas.getGraphicsContext2D();
+		this.image = new WritableImage(WIDTH, HEIGHT);
+	}
+
+	private void draw(){
+		this.gc.clearRect(0, 0, WIDTH, HEIGHT); // Also drops the commands recorded so far
+		for (Gate g : this.gates){
+			g.render(this.gc);
+		}
+		for (Wire w : this.wires){
+			w.render(this.gc);
+		}
+	}
+
+	/**
+	 * Cost of the render calls only, the drawing commands are recorded but not executed
+	 */
+	@Benchmark
+	public GraphicsContext record(){
+		draw();
+		return this.gc;
+	}
+
+	/**
+	 * Render calls and rasterization into an image on the JavaFX thread
+	 */
+	@Benchmark
+	public WritableImage rasterize(Toolkit toolkit) throws Exception{
+		draw();
+		FutureTask<WritableImage> task = new FutureTask<>(() -> this.canvas.snapshot(null, this.image));
+		Platform.runLater(task);
+		return task.get();
+	}
+}
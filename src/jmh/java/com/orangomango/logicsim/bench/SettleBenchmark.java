@@ -0,0 +1,66 @@
+package com.orangomango.logicsim.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.orangomango.logicsim.core.*;
+import com.orangomango.logicsim.engine.*;
+
+/**
+ * Time needed to settle the circuit after one input changed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SettleBenchmark{
+	@Param({"adder.lsimc", "4bAdder.lsimc", "alu.lsimc", "doubleDabble.lsimc", "example.lsim"})
+	public String file;
+
+	private List<Switch> switches;
+	private CompiledCircuit compiled;
+	private Netlist netlist;
+	private int[] inputs;
+	private boolean[] values;
+	private int next;
+
+	@Setup
+	public void setup(){
+		List<Gate> gates = Examples.load(this.file, new ArrayList<>());
+		this.switches = Examples.getSwitches(gates);
+		this.compiled = new CompiledCircuit(() -> gates);
+		this.compiled.compile();
+		this.netlist = this.compiled.getNetlist();
+		this.inputs = this.switches.stream().mapToInt(this.compiled::getInputDriver).toArray();
+		this.values = new boolean[this.inputs.length];
+		this.compiled.readInputs();
+		this.netlist.evaluate();
+	}
+
+	/**
+	 * Event-driven simulation of the gates, gate delays included
+	 */
+	@Benchmark
+	public long toggleAndSettle(){
+		Switch sw = this.switches.get(this.next++ % this.switches.size());
+		sw.setOn(!sw.isOn());
+		return Simulator.getInstance().settle(Examples.SETTLE_TICKS);
+	}
+
+	/**
+	 * Zero-delay evaluation of the compiled netlist
+	 */
+	@Benchmark
+	public boolean toggleAndEvaluate(){
+		int i = this.next++ % this.inputs.length;
+		this.values[i] = !this.values[i];
+		this.netlist.setInput(this.inputs[i], this.values[i]);
+		boolean stable = this.netlist.evaluate();
+		this.netlist.clearChanged();
+		return stable;
+	}
+}
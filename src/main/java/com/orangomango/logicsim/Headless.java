@@ -0,0 +1,112 @@
+package com.orangomango.logicsim;
+
+import java.io.*;
+import java.util.*;
+
+import com.orangomango.logicsim.engine.*;
+import com.orangomango.logicsim.io.BinaryFormat;
+import com.orangomango.logicsim.io.CircuitData;
+
+/**
+ * Command line simulator, it does not need JavaFX.
+ * Usage: Headless <file.lsim|file.lsimc> [--truth-table] [vectors...]
+ *    or: Headless <file.lsim|file.lsimc> --to-binary|--to-json <output>
+ * Every vector is a string of 0 and 1, one character per input switch from top to bottom.
+ * Vectors are read from the standard input when none are given, the state of the circuit
+ * is kept between them so sequential circuits can be driven step by step.
+ */
+public class Headless{
+	public static void main(String[] args){
+		if (args.length == 0){
+			System.err.println("Usage: Headless <file.lsim|file.lsimc> [--truth-table] [vectors...]");
+			System.err.println("   or: Headless <file.lsim|file.lsimc> --to-binary|--to-json <output>");
+			System.exit(2);
+		}
+
+		if (args.length == 3 && (args[1].equals("--to-binary") || args[1].equals("--to-json"))){
+			try {
+				convert(new File(args[0]), new File(args[2]), args[1].equals("--to-binary"));
+			} catch (IOException ex){
+				System.err.println("Could not convert "+args[0]+": "+ex.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+
+		NetlistLoader loader;
+		try {
+			loader = new NetlistLoader(new File(args[0]));
+		} catch (IOException ex){
+			System.err.println("Could not load "+args[0]+": "+ex.getMessage());
+			System.exit(1);
+			return;
+		}
+		Netlist netlist = loader.getNetlist();
+		System.out.println("Inputs: "+String.join(", ", loader.getInputLabels()));
+		System.out.println("Outputs: "+String.join(", ", loader.getOutputLabels()));
+
+		List<String> vectors = new ArrayList<>();
+		for (int i = 1; i < args.length; i++){
+			if (args[i].equals("--truth-table")){
+				try {
+					System.out.print(new BitParallelEvaluator(netlist).truthTable(loader.getInputDrivers(), loader.getOutputNets()));
+				} catch (IllegalArgumentException ex){
+					System.err.println(ex.getMessage());
+					System.exit(1);
+				}
+				return;
+			}
+			vectors.add(args[i]);
+		}
+
+		if (vectors.isEmpty()){
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+				String line;
+				while ((line = reader.readLine()) != null){
+					if (!line.isBlank()) apply(loader, line.trim());
+				}
+			} catch (IOException ex){
+				ex.printStackTrace();
+			}
+		} else {
+			for (String vector : vectors){
+				apply(loader, vector);
+			}
+		}
+	}
+
+	/**
+	 * Rewrite a file in the other format, chips are not converted
+	 */
+	private static void convert(File input, File output, boolean binary) throws IOException{
+		CircuitData data = CircuitData.read(input);
+		if (binary){
+			BinaryFormat.write(data, output);
+		} else {
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))){
+				writer.write(data.toJSON().toString(4));
+			}
+		}
+		System.out.println("Written "+output+" ("+output.length()+" bytes, "+input.length()+" before)");
+	}
+
+	private static void apply(NetlistLoader loader, String vector){
+		Netlist netlist = loader.getNetlist();
+		int[] inputs = loader.getInputDrivers();
+		if (vector.length() != inputs.length || !vector.matches("[01]*")){
+			System.err.println("Invalid vector "+vector+", expected "+inputs.length+" bits");
+			return;
+		}
+		for (int i = 0; i < inputs.length; i++){
+			netlist.setInput(inputs[i], vector.charAt(i) == '1');
+		}
+		boolean stable = netlist.evaluate();
+		StringBuilder builder = new StringBuilder(vector).append(" | ");
+		for (int net : loader.getOutputNets()){
+			builder.append(netlist.isOn(net) ? 1 : 0);
+		}
+		if (!stable) builder.append(" (unstable, "+netlist.getOscillatingCells().length+" cells oscillating)");
+		System.out.println(builder);
+	}
+}
@@ -1,6 +1,7 @@
 package com.orangomango.logicsim;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.stage.FileChooser;
 import javafx.scene.Scene;
@@ -8,9 +9,12 @@ import javafx.scene.Cursor;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.InputEvent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.canvas.*;
 import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
 import javafx.scene.image.Image;
 import javafx.scene.image.WritableImage;
 import javafx.animation.*;
@@ -21,6 +25,7 @@ import javafx.geometry.Insets;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TextArea;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
@@ -38,6 +43,14 @@ import org.json.JSONArray;
 
 import com.orangomango.logicsim.ui.*;
 import com.orangomango.logicsim.core.*;
+import com.orangomango.logicsim.engine.Simulator;
+import com.orangomango.logicsim.engine.SimulationMetrics;
+import com.orangomango.logicsim.engine.TruthTable;
+import com.orangomango.logicsim.io.BinaryFormat;
+import com.orangomango.logicsim.io.CircuitData;
+import com.orangomango.logicsim.io.DependencyResolver;
+import com.orangomango.logicsim.io.JsonFormat;
+import com.orangomango.logicsim.io.Journal;
 
 /**
  * Logic simulator made in Java/JavaFX
@@ -53,13 +66,22 @@ public class MainApplication extends Application{
 	private static double TOOLBAR_X = WIDTH*0.7;
 	private static double TOOLBAR_Y;
 	private static Rectangle2D POWER_RECTANGLE = new Rectangle2D(25, HEIGHT-190, 45, 45);
+	private static final String[] LOAD_PHASES = {"parse", "gates", "attach", "wires", "buses"};
+	private static final double DETAIL_SCALE = 0.475; // Between two zoom steps, the board is simplified below it
 
 	private SideArea sideArea;
 	private File currentFile = null;
+	private Journal journal;
+	private ProjectLoader loader; // Project being loaded in the background
+	private DirtyRegions dirty = new DirtyRegions();
+	private boolean binaryFormat = false; // Format used to save the current file
 	private int selectedId = -1;
 	private Point2D mouseMoved = new Point2D(0, 0);
 	private List<Gate> gates = new ArrayList<>();
 	private List<Wire> wires = new ArrayList<>();
+	private SpatialIndex<Gate> gateIndex = new SpatialIndex<>();
+	private SpatialIndex<Wire> wireIndex = new SpatialIndex<>();
+	private StaticLayer staticLayer = new StaticLayer(this.gateIndex);
 	private Pin connG;
 	private List<Point2D> pinPoints = new ArrayList<>();
 	private List<Gate> selectedGates = new ArrayList<>();
@@ -69,7 +91,7 @@ public class MainApplication extends Application{
 	private Point2D movePoint, deltaMove = new Point2D(0, 0); // For camera movement
 	private double cameraX, cameraY;
 	private double cameraScale = 1;
-	private boolean rmWire = false, rmGate = false, connBus = false;
+	private boolean rmWire = false, rmGate = false, connBus = false, showMetrics = false;
 	private Pin rmW;
 	private List<Wire> wiresToRemove = new ArrayList<>();
 	private List<Gate> gatesToRemove = new ArrayList<>();
@@ -77,6 +99,7 @@ public class MainApplication extends Application{
 	private Point2D selectedRectanglePoint = null;
 	private double selectedAreaWidth, selectedAreaHeight;
 	private Point2D selectionMoveStart;
+	private boolean selectionMoved;
 	private Point2D busStartPoint, busTempEndPoint;
 	private int busAmount = 1;
 	private UiTooltip tooltip;
@@ -84,10 +107,28 @@ public class MainApplication extends Application{
 	private Pin movingBusPin = null;
 	private Bus connB;
 	private boolean toolbarHidden = false;
-	private Image hideImage = new Image(getClass().getResourceAsStream("/sidebutton.png"));
+	private Image hideImage = Util.getImage("/sidebutton.png");
 	
 	@Override
 	public void start(Stage stage){
+		SimulationMetrics.register();
+		Simulator.getInstance().setOscillationHandler(loop -> this.dirty.invalidate()); // The stopped gates are marked and counted in the HUD
+		Simulator.getInstance().setErrorHandler((e, ex) -> {
+			String name = e instanceof Gate ? ((Gate)e).getLabel().replace("\n", " ") : String.valueOf(e);
+			Util.reportError("Simulation error", "The evaluation of "+name+" failed: "+ex);
+		});
+		Util.setRepaintHandler(this.dirty::add);
+		Util.setErrorHandler((title, message) -> {
+			if (!Platform.isFxApplicationThread()){
+				Platform.runLater(() -> Util.reportError(title, message));
+				return;
+			}
+			Alert error = new Alert(Alert.AlertType.ERROR);
+			error.setTitle(title);
+			error.setHeaderText(title);
+			error.setContentText(message);
+			error.showAndWait();
+		});
 		Canvas canvas = new Canvas(WIDTH, HEIGHT);
 		GraphicsContext gc = canvas.getGraphicsContext2D();
 		CanvasPane pane = new CanvasPane(canvas, (w, h) -> resize((int)w, (int)h, canvas));
@@ -99,7 +140,11 @@ public class MainApplication extends Application{
 			FileChooser fc = new FileChooser();
 			fc.setTitle("Save project");
 			fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("LogicSim files", "*.lsim"));
+			fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("LogicSim files (binary)", "*.lsim"));
 			File file = this.currentFile == null || this.currentFile.getName().endsWith(".lsimc") ? fc.showSaveDialog(stage) : this.currentFile;
+			if (file != null && file != this.currentFile){
+				this.binaryFormat = fc.getSelectedExtensionFilter() == fc.getExtensionFilters().get(1);
+			}
 			if (file != null){
 				this.currentFile = file;
 				save(file);
@@ -117,20 +162,31 @@ public class MainApplication extends Application{
 			fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("LogicSim files", "*.lsim"));
 			fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("LogicSim chips", "*.lsimc"));
 			File file = fc.showOpenDialog(stage);
-			List<Gate> gates = new ArrayList<>();
-			List<Wire> wires = new ArrayList<>();
 			if (file != null){
-				int backup = Pin.PIN_ID;
-				Pin.PIN_ID = 0;
-				JSONObject json = load(file, gc, gates, wires);
-				if (json == null){
-					Pin.PIN_ID = backup;
-					return;
-				}
-				this.currentFile = file;
-				this.gates = gates;
-				this.wires = wires;
-				buildSideArea(gc);
+				ProjectLoader loader = new ProjectLoader(file, gc);
+				loader.setOnSucceeded(ev -> {
+					this.loader = null;
+					if (loader.getValue() == null) return;
+
+					// Replace the whole project at once
+					this.currentFile = file;
+					this.binaryFormat = loader.isBinary();
+					openJournal(file);
+					this.gates = loader.getGates();
+					this.wires = loader.getWires();
+					rebuildIndex();
+					this.selectedGates.clear();
+					this.selectedWirePoints.clear();
+					circuitEdited();
+					buildSideArea(gc);
+					this.dirty.invalidate();
+				});
+				loader.setOnFailed(ev -> {
+					this.loader = null;
+					Util.reportError("Loading failed", "Could not load "+file.getName()+": "+loader.getException().getMessage());
+				});
+				this.loader = loader;
+				loader.start();
 			}
 		});
 		UiButton saveChipButton = new UiButton(gc, new Image(getClass().getResourceAsStream("/button_savechip.png")), "SAVE CHIP", buttonsRect[2], () -> {
@@ -138,13 +194,9 @@ public class MainApplication extends Application{
 			Color defaultColor = Color.BLUE;
 			try {
 				if (this.currentFile != null && this.currentFile.getName().endsWith(".lsimc")){
-					BufferedReader reader = new BufferedReader(new FileReader(this.currentFile));
-					StringBuilder builder = new StringBuilder();
-					reader.lines().forEach(builder::append);
-					reader.close();
-					JSONObject json = new JSONObject(builder.toString());
-					defaultColor = Color.color(json.getJSONObject("color").getDouble("red"), json.getJSONObject("color").getDouble("green"), json.getJSONObject("color").getDouble("blue"));
-					defaultName = json.getString("chipName");
+					CircuitData data = CircuitData.read(this.currentFile);
+					defaultColor = Color.color(data.getChipColor(0), data.getChipColor(1), data.getChipColor(2));
+					defaultName = data.getChipName();
 				}
 			} catch (IOException ex){
 				ex.printStackTrace();
@@ -169,7 +221,11 @@ public class MainApplication extends Application{
 				FileChooser fc = new FileChooser();
 				fc.setTitle("Save chip");
 				fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("LogicSim chips", "*.lsimc"));
+				fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("LogicSim chips (binary)", "*.lsimc"));
 				File file = this.currentFile == null ? fc.showSaveDialog(stage) : this.currentFile;
+				if (file != null && file != this.currentFile){
+					this.binaryFormat = fc.getSelectedExtensionFilter() == fc.getExtensionFilters().get(1);
+				}
 				if (file != null){
 					this.currentFile = file;
 					save(file, name.getText(), colorPicker.getValue());
@@ -185,8 +241,12 @@ public class MainApplication extends Application{
 		UiButton clearButton = new UiButton(gc, new Image(getClass().getResourceAsStream("/button_clear.png")), "CLEAR", buttonsRect[3], () -> {
 			this.wires = new ArrayList<Wire>();
 			this.gates = new ArrayList<Gate>();
+			rebuildIndex();
+			circuitEdited();
 			Pin.PIN_ID = 0;
 			this.currentFile = null;
+			this.binaryFormat = false;
+			closeJournal();
 		});
 		UiButton rmWireButton = new UiButton(gc, new Image(getClass().getResourceAsStream("/button_rmwire.png")), "RM WIRE", buttonsRect[4], () -> {
 			this.rmWire = true;
@@ -299,6 +359,7 @@ public class MainApplication extends Application{
 					} else {
 						((Bus)g).setRect(new Rectangle2D(ref.getRect().getMinX()+i*20, ref.getRect().getMinY(), ref.getRect().getWidth(), ref.getRect().getHeight()));
 					}
+					journalGate(g);
 				}
 			}
 		});
@@ -327,7 +388,12 @@ public class MainApplication extends Application{
 		buildSideArea(gc);
 
 		canvas.setFocusTraversable(true);
+		canvas.addEventFilter(InputEvent.ANY, e -> {
+			// Moving the mouse only changes the tooltip and the wire being placed
+			if (e.getEventType() != MouseEvent.MOUSE_MOVED) this.dirty.invalidate();
+		});
 		canvas.setOnKeyPressed(e -> {
+			if (this.loader != null) return; // The project is being replaced
 			if (e.getCode() == KeyCode.P){
 				Util.toggleCircuitPower(this.gates);
 			} else if (e.getCode() == KeyCode.DELETE){
@@ -366,16 +432,26 @@ public class MainApplication extends Application{
 						} else {
 							((Bus)g).setRect(new Rectangle2D(ref.getRect().getMinX()+i*20, ref.getRect().getMinY(), ref.getRect().getWidth(), ref.getRect().getHeight()));
 						}
+						journalGate(g);
 					}
 				}
 			} else if (e.getCode() == KeyCode.H){
 				this.toolbarHidden = !this.toolbarHidden;
 			} else if (e.getCode() == KeyCode.F1){
 				Util.SHOW_PIN_ID = !Util.SHOW_PIN_ID;
+			} else if (e.getCode() == KeyCode.F3){
+				this.showMetrics = !this.showMetrics;
+			} else if (e.getCode() == KeyCode.F2){
+				if (CompiledCircuit.getActive() == null){
+					CompiledCircuit.activate(new CompiledCircuit(() -> this.gates));
+				} else {
+					CompiledCircuit.deactivate(this.gates);
+				}
 			}
 		});
 
 		canvas.setOnMousePressed(e -> {
+			if (this.loader != null) return;
 			Point2D clickPoint = getClickPoint(e.getX(), e.getY());
 			Rectangle2D hideButton = new Rectangle2D(0, this.toolbarHidden ? 0 : TOOLBAR_Y, 37.5, 25);
 			if (e.getButton() == MouseButton.PRIMARY){
@@ -397,7 +473,7 @@ public class MainApplication extends Application{
 								break;
 							case 1:
 								Pin found = null;
-								for (Gate gt : this.gates){
+								for (Gate gt : this.gateIndex.query(clickPoint.getX(), clickPoint.getY())){
 									Pin pin = gt.getPin(clickPoint.getX(), clickPoint.getY());
 									if (pin != null){
 										found = pin;
@@ -418,7 +494,11 @@ public class MainApplication extends Application{
 											}
 											this.pinPoints.set(this.pinPoints.size()-1, ref);
 										}
-										this.wires.add(new Wire(gc, this.connG, found, new ArrayList<Point2D>(this.pinPoints)));
+										Wire wire = new Wire(gc, this.connG, found, new ArrayList<Point2D>(this.pinPoints));
+										this.wires.add(wire);
+										wire.setIndex(this.wireIndex);
+										circuitEdited();
+										if (this.journal != null) this.journal.wireAdded(wire.getJSON());
 										this.connG = null;
 										this.selectedId = -1;
 										this.pinPoints.clear();
@@ -476,16 +556,20 @@ public class MainApplication extends Application{
 								fc.setTitle("Load chip");
 								fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("LogicSim chips", "*.lsimc"));
 								File file = fc.showOpenDialog(stage);
-								if (file == null){
+								if (file == null || !checkDependencies(file)){
 									this.selectedId = -1;
 									return;
 								}
 								g = new Chip(gc, new Rectangle2D(clickPoint.getX(), clickPoint.getY(), 125, 0), file);
-								loaded = ((Chip)g).getJSONData() != null;
+								loaded = ((Chip)g).getDefinition() != null;
 								break;
 							case 6:
+								if (!checkDependencies(this.selectedChipFile)){
+									this.selectedId = -1;
+									return;
+								}
 								g = new Chip(gc, new Rectangle2D(clickPoint.getX(), clickPoint.getY(), 125, 0), this.selectedChipFile);
-								loaded = ((Chip)g).getJSONData() != null;
+								loaded = ((Chip)g).getDefinition() != null;
 								break;
 							case 7:
 								g = new Display7(gc, new Rectangle2D(clickPoint.getX(), clickPoint.getY(), 0, 0));
@@ -501,14 +585,20 @@ public class MainApplication extends Application{
 								break;
 						}
 						if (g != null){
-							if (loaded) this.gates.add(g);
+							if (loaded){
+								this.gates.add(g);
+								g.setIndex(this.gateIndex);
+								circuitEdited();
+								g.schedule();
+								if (this.journal != null) this.journal.gateAdded(g.getJSON());
+							}
 							this.selectedId = -1;
 						}
 					} else {
 						boolean sideAreaClicked = this.sideArea.onClick(e.getX(), e.getY());
 						if (!sideAreaClicked){
 							boolean voidClick = true;
-							for (Gate g : this.gates){
+							for (Gate g : this.gateIndex.query(clickPoint.getX(), clickPoint.getY())){
 								Pin pin = g.getPin(clickPoint.getX(), clickPoint.getY());
 								if (pin == null){
 									boolean inside = g.getRect().contains(clickPoint.getX(), clickPoint.getY());
@@ -525,6 +615,9 @@ public class MainApplication extends Application{
 														this.connB = bus;
 													} else {
 														this.connB.connectBus(bus);
+														circuitEdited();
+														journalGate(this.connB);
+														journalGate(bus);
 														this.connB = null;
 														this.connBus = false;
 													}
@@ -533,14 +626,20 @@ public class MainApplication extends Application{
 													if (isOnBorder){
 														this.resizingBus = bus;
 													} else if (clickPoint.getX()-g.getRect().getMinX() > 30 && g.getRect().getMaxX()-clickPoint.getX() > 30){
-														g.getPins().add(new Pin(g, new Rectangle2D(clickPoint.getX()-7.5, g.getRect().getMinY()+g.getRect().getHeight()/2-7.5, 15, 15), e.isShiftDown() || shiftButton.isOn()));
+														bus.addPin(new Pin(g, new Rectangle2D(clickPoint.getX()-7.5, g.getRect().getMinY()+g.getRect().getHeight()/2-7.5, 15, 15), e.isShiftDown() || shiftButton.isOn()));
+														circuitEdited();
+														g.schedule();
+														journalGate(g);
 													}
 												} else {
 													boolean isOnBorder = bus.isOnBorder(clickPoint.getX(), clickPoint.getY());
 													if (isOnBorder){
 														this.resizingBus = bus;
 													} else if (clickPoint.getY()-g.getRect().getMinY() > 30 && g.getRect().getMaxY()-clickPoint.getY() > 30){
-														g.getPins().add(new Pin(g, new Rectangle2D(g.getRect().getMinX()+g.getRect().getWidth()/2-7.5, clickPoint.getY()-7.5, 15, 15), e.isShiftDown() || shiftButton.isOn()));
+														bus.addPin(new Pin(g, new Rectangle2D(g.getRect().getMinX()+g.getRect().getWidth()/2-7.5, clickPoint.getY()-7.5, 15, 15), e.isShiftDown() || shiftButton.isOn()));
+														circuitEdited();
+														g.schedule();
+														journalGate(g);
 													}
 												}
 											} else {
@@ -606,7 +705,7 @@ public class MainApplication extends Application{
 			} else if (e.getButton() == MouseButton.SECONDARY){
 				Gate found = null;
 				Pin pinFound = null;
-				for (Gate g : this.gates){
+				for (Gate g : this.gateIndex.query(clickPoint.getX(), clickPoint.getY())){
 					Pin pin = g.getPin(clickPoint.getX(), clickPoint.getY());
 					if (g.getRect().contains(clickPoint.getX(), clickPoint.getY())){
 						found = g;
@@ -618,7 +717,7 @@ public class MainApplication extends Application{
 				}
 				Wire.WirePoint foundPoint = null;
 				wiresLoop:
-				for (Wire w : this.wires){
+				for (Wire w : this.wireIndex.query(new Rectangle2D(clickPoint.getX()-5, clickPoint.getY()-5, 10, 10))){
 					for (Wire.WirePoint wp : w.getPoints()){
 						if (wp.contains(clickPoint.getX(), clickPoint.getY())){
 							foundPoint = wp;
@@ -642,11 +741,12 @@ public class MainApplication extends Application{
 		});
 
 		canvas.setOnMouseMoved(e -> {
+			UiTooltip previousTooltip = this.tooltip;
 			this.mouseMoved = new Point2D(e.getX(), e.getY());
 			Point2D clickPoint = getClickPoint(e.getX(), e.getY());
 			Gate found = null;
 			Pin pinFound = null;
-			for (Gate g : this.gates){
+			for (Gate g : this.gateIndex.query(clickPoint.getX(), clickPoint.getY())){
 				Pin pin = g.getPin(clickPoint.getX(), clickPoint.getY());
 				if (g.getRect().contains(clickPoint.getX(), clickPoint.getY())){
 					found = g;
@@ -673,6 +773,9 @@ public class MainApplication extends Application{
 			} else {
 				this.tooltip = null;
 			}
+			if (this.tooltip != null || previousTooltip != null || this.connG != null){
+				this.dirty.invalidate();
+			}
 		});
 
 		canvas.setOnMouseDragged(e -> {
@@ -706,6 +809,7 @@ public class MainApplication extends Application{
 				} else if (this.selectionMoveStart != null){
 					this.deltaMove = new Point2D(e.getX()-this.selectionMoveStart.getX(), e.getY()-this.selectionMoveStart.getY());
 					this.selectionMoveStart = new Point2D(e.getX(), e.getY());
+					this.selectionMoved = true;
 					for (Gate g : this.selectedGates){
 						g.setPos(g.getRect().getMinX()+this.deltaMove.getX()/this.cameraScale, g.getRect().getMinY()+this.deltaMove.getY()/this.cameraScale);
 					}
@@ -721,12 +825,12 @@ public class MainApplication extends Application{
 			if (e.getButton() == MouseButton.PRIMARY){
 				if (this.selectedRectanglePoint != null){
 					Rectangle2D selection = Util.buildRect(this.selectedRectanglePoint, this.selectedAreaWidth, this.selectedAreaHeight);
-					for (Gate g : this.gates){
+					for (Gate g : this.gateIndex.query(selection)){
 						if (g.getRect().intersects(selection)){
 							this.selectedGates.add(g);
 						}
 					}
-					for (Wire w : this.wires){
+					for (Wire w : this.wireIndex.query(selection)){
 						for (Wire.WirePoint p : w.getPoints()){
 							if (selection.contains(p.getX(), p.getY())){
 								this.selectedWirePoints.add(p);
@@ -737,17 +841,24 @@ public class MainApplication extends Application{
 					if (this.busTempEndPoint != null){
 						double width = this.busTempEndPoint.getX()-this.busStartPoint.getX();
 						double height = this.busTempEndPoint.getY()-this.busStartPoint.getY();
+						int first = this.gates.size();
 						if (Math.abs(width) > Math.abs(height)){
 							for (int i = 0; i < this.busAmount; i++) this.gates.add(new Bus(gc, Util.buildRect(new Point2D(this.busStartPoint.getX(), this.busStartPoint.getY()+i*20), width, 10)));
 						} else {
 							for (int i = 0; i < this.busAmount; i++) this.gates.add(new Bus(gc, Util.buildRect(new Point2D(this.busStartPoint.getX()+i*20, this.busStartPoint.getY()), 10, height)));
 						}
+						for (int i = first; i < this.gates.size(); i++){
+							this.gates.get(i).setIndex(this.gateIndex);
+							if (this.journal != null) this.journal.gateAdded(this.gates.get(i).getJSON());
+						}
 					}
 					this.busStartPoint = null;
 					this.busTempEndPoint = null;
 					this.selectedId = -1;
 					this.busAmount = 1;
 				}
+				if (this.resizingBus != null) journalGate(this.resizingBus);
+				if (this.movingBusPin != null) journalGate(this.movingBusPin.getOwner());
 				this.selectedRectanglePoint = null;
 				this.resizingBus = null;
 				this.movingBusPin = null;
@@ -760,6 +871,17 @@ public class MainApplication extends Application{
 				}
 				if (this.selectionMoveStart != null){
 					this.selectionMoveStart = null;
+					if (this.selectionMoved && this.journal != null){
+						for (Gate g : this.selectedGates){
+							int index = this.gates.indexOf(g);
+							if (index >= 0) this.journal.gateMoved(index, g.getRect().getMinX(), g.getRect().getMinY());
+						}
+						for (int i = 0; i < this.wires.size(); i++){
+							if (this.wires.get(i).getPoints().stream().anyMatch(this.selectedWirePoints::contains)){
+								this.journal.wireChanged(i, this.wires.get(i).getJSON());
+							}
+						}
+					}
 				}
 			}
 		});
@@ -774,7 +896,15 @@ public class MainApplication extends Application{
 		Scene scene = new Scene(pane, WIDTH, HEIGHT);
 
 		Timeline loop = new Timeline(new KeyFrame(Duration.millis(1000.0/FPS), e -> {
-			update(gc);
+			if (removeSelected() || this.showMetrics || this.loader != null || this.sideArea.isAnimating()){
+				this.dirty.invalidate();
+			}
+			List<Rectangle2D> regions = this.dirty.take();
+			if (regions == null || !regions.isEmpty()){ // Idle frames are skipped
+				long frameStart = System.nanoTime();
+				update(gc, regions);
+				SimulationMetrics.getInstance().frameRendered(System.nanoTime()-frameStart);
+			}
 			if (this.rmWire || this.rmGate || this.connBus){
 				scene.setCursor(Cursor.CROSSHAIR);
 			} else if (this.movePoint != null){
@@ -797,21 +927,7 @@ public class MainApplication extends Application{
 		loop.setCycleCount(Animation.INDEFINITE);
 		loop.play();
 
-		Thread simulation = new Thread(() -> {
-			while (true){
-				try {
-					for (int i = 0; i < this.gates.size(); i++){
-						Gate g = this.gates.get(i);
-						g.update();
-					}
-					Thread.sleep(2);
-				} catch (InterruptedException ex){
-					ex.printStackTrace();
-				}
-			}
-		});
-		simulation.setDaemon(true);
-		simulation.start();
+		Simulator.getInstance().start();
 		
 		stage.getIcons().add(new Image(getClass().getResourceAsStream("/icon.png")));
 		stage.setScene(scene);
@@ -831,6 +947,7 @@ public class MainApplication extends Application{
 			}
 		} else {
 			this.selectionMoveStart = new Point2D(x, y);
+			this.selectionMoved = false;
 			this.deltaMove = new Point2D(0, 0);
 		}
 	}
@@ -849,11 +966,40 @@ public class MainApplication extends Application{
 				alert.showAndWait();
 				cc.destroy();
 			});
-			cm.getItems().add(showChip);
+			MenuItem truthTable = new MenuItem("Truth table");
+			truthTable.setOnAction(ev -> {
+				List<Switch> inputs = new ArrayList<>();
+				List<Light> outputs = new ArrayList<>();
+				try {
+					TruthTable table = new CompiledCircuit(chip::getGates).buildTruthTable(inputs, outputs);
+					Alert alert = new Alert(Alert.AlertType.INFORMATION);
+					alert.setTitle(chip.getName());
+					alert.setHeaderText("Truth table ("+inputs.size()+" inputs, "+outputs.size()+" outputs)");
+					TextArea area = new TextArea(table.toString(1024));
+					area.setEditable(false);
+					area.setFont(Font.font("monospace"));
+					alert.getDialogPane().setContent(area);
+					alert.showAndWait();
+				} catch (IllegalArgumentException ex){
+					Alert error = new Alert(Alert.AlertType.ERROR);
+					error.setTitle("Truth table");
+					error.setHeaderText("Truth table");
+					error.setContentText(ex.getMessage());
+					error.showAndWait();
+				}
+			});
+			cm.getItems().addAll(showChip, truthTable);
 		} else if (found instanceof Bus){
 			MenuItem clearConn = new MenuItem("Clear connections");
 			final Bus bus = (Bus)found;
-			clearConn.setOnAction(ev -> bus.clearConnections());
+			clearConn.setOnAction(ev -> {
+				List<Bus> connected = new ArrayList<>(bus.getConnections());
+				bus.clearConnections();
+				circuitEdited();
+				this.dirty.invalidate();
+				journalGate(bus);
+				connected.forEach(this::journalGate);
+			});
 			cm.getItems().add(clearConn);
 		}
 		final Gate gate = found;
@@ -864,6 +1010,10 @@ public class MainApplication extends Application{
 			dialog.setHeaderText("Label name");
 			dialog.showAndWait().ifPresent(v -> {
 				gate.setLabel(v);
+				this.dirty.invalidate();
+				if (this.journal != null && this.gates.contains(gate)){
+					this.journal.labelChanged(this.gates.indexOf(gate), v);
+				}
 			});
 		});
 		MenuItem deleteGate = new MenuItem("Delete");
@@ -897,6 +1047,7 @@ public class MainApplication extends Application{
 
 		buildSideArea(canvas.getGraphicsContext2D());
 		POWER_RECTANGLE = new Rectangle2D(25, HEIGHT-190, 45, 45);
+		this.dirty.invalidate();
 	}
 
 	private void makeButtonsRect(Rectangle2D[] buttonsRect){
@@ -937,6 +1088,17 @@ public class MainApplication extends Application{
 		}
 	}
 
+	/**
+	 * Inverse of getClickPoint
+	 */
+	public Point2D getScreenPoint(double x, double y){
+		Point2D point = new Point2D(x, y).multiply(this.cameraScale).add(this.cameraX, this.cameraY);
+		if (this.movePoint != null){
+			point = point.add(this.deltaMove);
+		}
+		return point;
+	}
+
 	public Point2D getClickPoint(double x, double y){
 		Point2D clickPoint = new Point2D(x, y);
 		clickPoint = clickPoint.subtract(this.cameraX, this.cameraY);
@@ -947,6 +1109,96 @@ public class MainApplication extends Application{
 		return clickPoint;
 	}
 
+	/**
+	 * Progress of the project being loaded, an indeterminate bar is animated
+	 */
+	private void renderLoading(GraphicsContext gc){
+		double width = 300;
+		double x = (WIDTH-width)/2;
+		double y = HEIGHT/2-30;
+		gc.save();
+		gc.setGlobalAlpha(0.8);
+		gc.setFill(Color.WHITE);
+		gc.fillRoundRect(x-15, y-30, width+30, 75, 10, 10);
+		gc.setGlobalAlpha(1);
+		gc.setFill(Color.BLACK);
+		gc.fillText(this.loader.getMessage(), x, y-8);
+		gc.setFill(Color.web("#3A5D73"));
+		double progress = this.loader.getProgress();
+		if (progress < 0){
+			double position = (System.nanoTime()/2e9) % 1;
+			gc.fillRect(x+position*width*0.75, y, width*0.25, 20);
+		} else {
+			gc.fillRect(x, y, width*progress, 20);
+		}
+		gc.setStroke(Color.BLACK);
+		gc.setLineWidth(1);
+		gc.strokeRect(x, y, width, 20);
+		gc.restore();
+	}
+
+	/**
+	 * Check a chip before placing it, it must not use the file being edited
+	 * @return false if the chip cannot be used, the problems are reported
+	 */
+	private boolean checkDependencies(File file){
+		try {
+			DependencyResolver resolver = new DependencyResolver(chip -> ChipDefinition.get(chip).getData());
+			resolver.resolve(file, ChipDefinition.get(file).getData());
+			if (this.currentFile != null){
+				File current = this.currentFile.getCanonicalFile();
+				if (current.equals(file.getCanonicalFile()) || resolver.getOrder().contains(current)){
+					throw new IOException(file.getName()+" uses "+current.getName()+", it cannot be placed inside it");
+				}
+			}
+			return true;
+		} catch (IOException ex){
+			Util.reportError("Invalid chip", ex.getMessage());
+			return false;
+		}
+	}
+
+	private void openJournal(File file){
+		closeJournal();
+		try {
+			this.journal = new Journal(file, Util::reportError);
+		} catch (IOException ex){
+			Util.reportError("Journal error", "Could not open the journal of "+file.getName()+", edits will not be recovered: "+ex.getMessage());
+		}
+	}
+
+	/**
+	 * The pending edits are folded into the file
+	 */
+	private void closeJournal(){
+		if (this.journal != null){
+			try {
+				this.journal.close();
+			} catch (IOException ex){
+				Util.reportError("Journal error", "Could not close the journal of "+this.journal.getFile().getName()+": "+ex.getMessage());
+			}
+			this.journal = null;
+		}
+	}
+
+	/**
+	 * The user changed the structure of the circuit, a loop that did not settle may have been broken
+	 */
+	private void circuitEdited(){
+		CompiledCircuit.structureChanged();
+		Util.releaseOscillatingGates();
+	}
+
+	/**
+	 * Record a change of a gate that has no specific journal record
+	 */
+	private void journalGate(Gate gate){
+		int index = this.gates.indexOf(gate);
+		if (this.journal != null && index >= 0){
+			this.journal.gateChanged(index, gate.getJSON());
+		}
+	}
+
 	private void save(File file){
 		save(file, null, null);
 	}
@@ -961,7 +1213,6 @@ public class MainApplication extends Application{
 			if (replace) this.currentFile = file;
 		}
 		try {
-			BufferedWriter writer = new BufferedWriter(new FileWriter(file));
 			JSONObject json = new JSONObject();
 			JSONArray data = new JSONArray();
 			for (Gate gate : this.gates){
@@ -981,152 +1232,221 @@ public class MainApplication extends Application{
 				cl.put("blue", color.getBlue());
 				json.put("color", cl);
 			}
-			writer.write(json.toString(4));
-			writer.close();
+			if (this.journal == null || !this.journal.getFile().equals(file)){
+				openJournal(file);
+			}
+			CircuitData circuit = CircuitData.fromJSON(json);
+			if (this.journal != null){
+				this.journal.save(circuit, this.binaryFormat);
+			} else if (this.binaryFormat){
+				BinaryFormat.write(circuit, file);
+			} else {
+				JsonFormat.write(circuit, file);
+			}
 		} catch (IOException ex){
 			ex.printStackTrace();
 		}
 	}
 
-	public static JSONObject load(File file, GraphicsContext gc, List<Gate> tempGates, List<Wire> tempWires){
+	/**
+	 * Load a file with the edits of its journal
+	 */
+	public static CircuitData load(File file, GraphicsContext gc, List<Gate> tempGates, List<Wire> tempWires){
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(file));
-			StringBuilder builder = new StringBuilder();
-			reader.lines().forEach(builder::append);
-			reader.close();
-			JSONObject json = new JSONObject(builder.toString());
-
-			int backupId = Pin.PIN_ID;
-			Map<Bus, JSONArray> busConnections = new HashMap<>();
-
-			// Load gates
-			for (Object o : json.getJSONArray("gates")){
-				JSONObject gate = (JSONObject)o;
-				String name = gate.getString("name");
-				Color color = gate.optJSONObject("color") == null ? null : Color.color(gate.getJSONObject("color").getDouble("red"), gate.getJSONObject("color").getDouble("green"), gate.getJSONObject("color").getDouble("blue"));
-				Rectangle2D rect = new Rectangle2D(gate.getJSONObject("rect").getDouble("x"), gate.getJSONObject("rect").getDouble("y"), gate.getJSONObject("rect").getDouble("w"), gate.getJSONObject("rect").getDouble("h"));
-				List<Pin> pins = new ArrayList<>();
-				for (Object o2 : gate.getJSONArray("pins")){
-					JSONObject pin = (JSONObject)o2;
-					Pin p = new Pin(pin);
-					pins.add(p);
-				}
-				Gate gt = null;
-				int lastPinId = Pin.PIN_ID; // Save pin id
-				boolean lastPinFlag = Pin.UPDATE_PIN_ID;
-				if (name.equals("AND")){
-					gt = new AndGate(gc, rect);
-				} else if (name.equals("LIGHT")){
-					gt = pins.size() == 3 ? new LightRGB(gc, rect) : new Light(gc, rect);
-				} else if (name.equals("NOT")){
-					gt = new NotGate(gc, rect);
-				} else if (name.equals("SWITCH")){
-					gt = new Switch(gc, rect);
-				} else if (name.equals("CHIP")){
-					File chipFile = new File(file.getParent(), gate.getString("fileName"));
-					if (!chipFile.exists()){
-						Alert error = new Alert(Alert.AlertType.ERROR);
-						error.setTitle("Missing dependency");
-						error.setHeaderText("Missing dependency");
-						error.setContentText("The following dependency is missing: "+gate.getString("fileName"));
-						error.showAndWait();
-						Pin.PIN_ID = backupId;
-						return null;
-					}
-					gt = new Chip(gc, rect, chipFile);
-				} else if (name.equals("DISPLAY7")){
-					gt = new Display7(gc, rect);
-				} else if (name.equals("BUS")){
-					gt = new Bus(gc, rect, gate.getInt("id"));
-					busConnections.put((Bus)gt, gate.getJSONArray("connections"));
-				} else if (name.equals("3SBUFFER")){
-					gt = new TriStateBuffer(gc, rect);
-				}
-				Pin.PIN_ID = lastPinId; // Restore the last pin id
-				Pin.UPDATE_PIN_ID = lastPinFlag;
-				gt.setPins(pins);
-				gt.setLabel(gate.getString("label"));
-				tempGates.add(gt);
+			long[] times = newLoadTimes();
+			CircuitData data = Journal.read(file);
+			times[1] = System.nanoTime();
+			data = load(data, file, gc, tempGates, tempWires, times);
+			if (data != null){
+				reportLoadTimes(file, tempGates.size(), times);
 			}
+			return data;
+		} catch (IOException ex){
+			ex.printStackTrace();
+			return null;
+		}
+	}
 
-			// Attach gates' pins
-			for (Object o : json.getJSONArray("gates")){
-				JSONObject gate = (JSONObject)o;
-				for (Object o2 : gate.getJSONArray("pins")){
-					JSONObject pin = (JSONObject)o2;
-					int pinId = pin.getInt("id");
-					Pin currentPin = getPinById(tempGates, pinId);
-					for (Object o3 : pin.getJSONArray("attached")){
-						Integer apinId = (Integer)o3;
-						Pin apin = getPinById(tempGates, apinId);
-						currentPin.attach(apin);
-					}
+	public static CircuitData load(JSONObject json, File file, GraphicsContext gc, List<Gate> tempGates, List<Wire> tempWires){
+		return load(CircuitData.fromJSON(json), file, gc, tempGates, tempWires, null);
+	}
+
+	/**
+	 * Build the gates and the wires of already read data, the data is not modified
+	 * @param file the file the data comes from, used to find the chips it depends on
+	 */
+	public static CircuitData load(CircuitData data, File file, GraphicsContext gc, List<Gate> tempGates, List<Wire> tempWires){
+		return load(data, file, gc, tempGates, tempWires, null);
+	}
+
+	/**
+	 * @return the array the time of every load phase is written to, the first phase starts now
+	 */
+	public static long[] newLoadTimes(){
+		long[] times = new long[LOAD_PHASES.length+1];
+		times[0] = System.nanoTime();
+		return times;
+	}
+
+	/**
+	 * Show how long every phase of a load took in the metrics
+	 */
+	public static void reportLoadTimes(File file, int gates, long[] times){
+		StringBuilder report = new StringBuilder(file.getName()+" ("+gates+" gates):");
+		for (int i = 0; i < LOAD_PHASES.length; i++){
+			report.append(String.format(" %s %.2fms", LOAD_PHASES[i], (times[i+1]-times[i])/1e6));
+		}
+		SimulationMetrics.getInstance().loadFinished(report.toString());
+	}
+
+	/**
+	 * @param times end time of every phase, the parse phase must already be set, or null
+	 */
+	public static CircuitData load(CircuitData data, File file, GraphicsContext gc, List<Gate> tempGates, List<Wire> tempWires, long[] times){
+		int backupId = Pin.PIN_ID;
+		Map<Bus, int[]> busConnections = new HashMap<>();
+		Map<Integer, Bus> buses = new HashMap<>();
+		Pin[] pinIndex = new Pin[64]; // Pin ids are dense, the id is the index
+
+		// Load gates
+		for (int i = 0; i < data.getGateCount(); i++){
+			String name = data.getGateName(i);
+			Rectangle2D rect = new Rectangle2D(data.getGateX(i), data.getGateY(i), data.getGateWidth(i), data.getGateHeight(i));
+			List<Pin> pins = new ArrayList<>();
+			for (int j = data.getPinStart(i); j < data.getPinEnd(i); j++){
+				Pin p = new Pin(data.getPinId(j), new Rectangle2D(data.getPinX(j), data.getPinY(j), data.getPinWidth(j), data.getPinHeight(j)), data.isPinInput(j));
+				pins.add(p);
+			}
+			Gate gt = null;
+			int lastPinId = Pin.PIN_ID; // Save pin id
+			boolean lastPinFlag = Pin.UPDATE_PIN_ID;
+			if (name.equals("AND")){
+				gt = new AndGate(gc, rect);
+			} else if (name.equals("LIGHT")){
+				gt = pins.size() == 3 ? new LightRGB(gc, rect) : new Light(gc, rect);
+			} else if (name.equals("NOT")){
+				gt = new NotGate(gc, rect);
+			} else if (name.equals("SWITCH")){
+				gt = new Switch(gc, rect);
+			} else if (name.equals("CHIP")){
+				File chipFile = new File(file.getParent(), data.getFileName(i));
+				if (!chipFile.exists()){
+					Util.reportError("Missing dependency", "The following dependency is missing: "+data.getFileName(i));
+					Pin.PIN_ID = backupId;
+					return null;
 				}
+				gt = new Chip(gc, rect, chipFile);
+				if (((Chip)gt).getDefinition() == null){
+					Pin.PIN_ID = backupId;
+					Pin.UPDATE_PIN_ID = lastPinFlag;
+					return null;
+				}
+			} else if (name.equals("DISPLAY7")){
+				gt = new Display7(gc, rect);
+			} else if (name.equals("BUS")){
+				gt = new Bus(gc, rect, data.getBusId(i));
+				busConnections.put((Bus)gt, data.getBusConnections(i));
+				buses.putIfAbsent(((Bus)gt).getId(), (Bus)gt);
+			} else if (name.equals("3SBUFFER")){
+				gt = new TriStateBuffer(gc, rect);
 			}
-
-			// Load wires
-			for (Object o : json.getJSONArray("wires")){
-				JSONObject wire = (JSONObject)o;
-				Pin p1 = getPinById(tempGates, wire.getInt("pin1"));
-				Pin p2 = getPinById(tempGates, wire.getInt("pin2"));
-				List<Point2D> points = new ArrayList<>();
-				for (Object o2 : wire.getJSONArray("points")){
-					JSONObject p = (JSONObject)o2;
-					points.add(new Point2D(p.getDouble("x"), p.getDouble("y")));
+			Pin.PIN_ID = lastPinId; // Restore the last pin id
+			Pin.UPDATE_PIN_ID = lastPinFlag;
+			gt.setPins(pins);
+			gt.setLabel(data.getLabel(i));
+			tempGates.add(gt);
+			for (Pin p : pins){
+				if (p.getId() >= pinIndex.length){
+					pinIndex = Arrays.copyOf(pinIndex, Math.max(p.getId()+1, pinIndex.length*2));
+				}
+				if (pinIndex[p.getId()] == null){
+					pinIndex[p.getId()] = p;
 				}
-				tempWires.add(new Wire(gc, p1, p2, points));
 			}
+		}
+		if (times != null) times[2] = System.nanoTime();
 
-			// Connect buses
-			for (Gate g : tempGates){
-				if (g instanceof Bus){
-					Bus bus = (Bus)g;
-					JSONArray array = busConnections.get(bus);
-					for (Object o : array){
-						Bus attachedBus = (Bus)tempGates.stream().filter(gt -> gt instanceof Bus && ((Bus)gt).getId() == (int)o).findFirst().get();
-						bus.connectBus(attachedBus);
-					}
-				}
+		// Attach gates' pins
+		for (int j = 0; j < data.getPinCount(); j++){
+			Pin currentPin = getPinById(pinIndex, data.getPinId(j));
+			for (int k = data.getAttachedStart(j); k < data.getAttachedEnd(j); k++){
+				Pin apin = getPinById(pinIndex, data.getAttached(k));
+				currentPin.attach(apin);
 			}
+		}
+		if (times != null) times[3] = System.nanoTime();
 
-			return json;
-		} catch (IOException ex){
-			ex.printStackTrace();
-			return null;
+		// Load wires
+		for (int i = 0; i < data.getWireCount(); i++){
+			Pin p1 = getPinById(pinIndex, data.getWirePin1(i));
+			Pin p2 = getPinById(pinIndex, data.getWirePin2(i));
+			List<Point2D> points = new ArrayList<>();
+			for (int j = 0; j < data.getPointCount(i); j++){
+				points.add(new Point2D(data.getPointX(i, j), data.getPointY(i, j)));
+			}
+			tempWires.add(new Wire(gc, p1, p2, points));
 		}
-	}
+		if (times != null) times[4] = System.nanoTime();
 
-	private static Pin getPinById(List<Gate> gates, int id){
-		for (Gate g : gates){
-			for (Pin p : g.getPins()){
-				if (p.getId() == id){
-					return p;
+		// Connect buses
+		for (Gate g : tempGates){
+			if (g instanceof Bus){
+				Bus bus = (Bus)g;
+				for (int id : busConnections.get(bus)){
+					bus.connectBus(buses.get(id));
 				}
 			}
 		}
-		return null;
+		if (times != null) times[5] = System.nanoTime();
+
+		// Evaluate everything once, the simulator will then only follow the changes
+		for (Gate g : tempGates){
+			g.schedule();
+		}
+
+		return data;
+	}
+
+	private static Pin getPinById(Pin[] pinIndex, int id){
+		return id >= 0 && id < pinIndex.length ? pinIndex[id] : null;
 	}
 	
-	private void update(GraphicsContext gc){
+	/**
+	 * @param regions the areas to draw in world coordinates, null to draw everything
+	 */
+	private void update(GraphicsContext gc, List<Rectangle2D> regions){
+		gc.save();
+		if (regions != null){
+			gc.beginPath();
+			for (Rectangle2D region : regions){
+				Point2D start = getScreenPoint(region.getMinX(), region.getMinY());
+				gc.rect(Math.floor(start.getX())-1, Math.floor(start.getY())-1, Math.ceil(region.getWidth()*this.cameraScale)+3, Math.ceil(region.getHeight()*this.cameraScale)+3);
+			}
+			gc.clip();
+		}
 		gc.clearRect(0, 0, WIDTH, HEIGHT);
 		gc.setFill(Color.web("#9595D3"));
 		gc.fillRect(0, 0, WIDTH, HEIGHT);
 
+		boolean detailed = this.cameraScale >= DETAIL_SCALE;
+
 		// Render the grid
-		double gridSize = 50*this.cameraScale;
-		gridSize = Math.min(100, Math.max(gridSize, 15));
-		gc.save();
-		gc.setStroke(Color.web("#3A5D73"));
-		gc.setLineWidth(1.5);
-		double offsetX = (this.cameraX+(this.movePoint != null ? this.deltaMove.getX() : 0)) % gridSize;
-		double offsetY = (this.cameraY+(this.movePoint != null ? this.deltaMove.getY() : 0)) % gridSize;
-		for (double i = offsetX; i < WIDTH; i += gridSize){
-			gc.strokeLine(i, 0, i, HEIGHT);
-		}
-		for (double i = offsetY; i < HEIGHT; i += gridSize){
-			gc.strokeLine(0, i, WIDTH, i);
+		if (detailed){
+			double gridSize = 50*this.cameraScale;
+			gridSize = Math.min(100, Math.max(gridSize, 15));
+			gc.save();
+			gc.setStroke(Color.web("#3A5D73"));
+			gc.setLineWidth(1.5);
+			double offsetX = (this.cameraX+(this.movePoint != null ? this.deltaMove.getX() : 0)) % gridSize;
+			double offsetY = (this.cameraY+(this.movePoint != null ? this.deltaMove.getY() : 0)) % gridSize;
+			for (double i = offsetX; i < WIDTH; i += gridSize){
+				gc.strokeLine(i, 0, i, HEIGHT);
+			}
+			for (double i = offsetY; i < HEIGHT; i += gridSize){
+				gc.strokeLine(0, i, WIDTH, i);
+			}
+			gc.restore();
 		}
-		gc.restore();
 
 		gc.save();
 		gc.translate(this.cameraX, this.cameraY);
@@ -1139,11 +1459,18 @@ public class MainApplication extends Application{
 		Point2D bottomRight = getClickPoint(WIDTH, HEIGHT);
 		Rectangle2D screen = new Rectangle2D(topLeft.getX(), topLeft.getY(), bottomRight.getX()-topLeft.getX(), bottomRight.getY()-topLeft.getY());
 
-		for (Gate g : this.gates){
-			if (!screen.intersects(g.getRect())){
+		if (detailed){
+			this.staticLayer.render(gc, screen, this.cameraScale);
+		}
+		for (Gate g : this.gateIndex.query(screen)){
+			if (!isDirty(regions, g.getBounds())){
 				continue;
 			}
-			g.render();
+			if (detailed){
+				g.renderDynamic(gc);
+			} else {
+				g.renderSimple(gc);
+			}
 			if (this.selectedGates.contains(g)){
 				gc.save();
 				gc.setFill(Color.LIME);
@@ -1152,13 +1479,16 @@ public class MainApplication extends Application{
 				gc.restore();
 			}
 		}
-		for (Wire w : this.wires){
-			if (!screen.contains(w.getPin1().getX(), w.getPin1().getY()) && !screen.contains(w.getPin2().getX(), w.getPin2().getY())){
-				if (!w.getPoints().stream().filter(wp -> screen.contains(wp.getX(), wp.getY())).findAny().isPresent()){
-					continue;
-				}
+		for (Wire w : this.wireIndex.query(screen)){
+			if (!isDirty(regions, w.getBounds())){
+				continue;
+			}
+			if (detailed){
+				w.render();
+			} else {
+				w.renderSimple(gc);
 			}
-			w.render();
+			if (this.selectedWirePoints.isEmpty()) continue;
 			for (Wire.WirePoint wp : w.getPoints()){
 				if (this.selectedWirePoints.contains(wp)){
 					wp.render(gc);
@@ -1211,7 +1541,17 @@ public class MainApplication extends Application{
 		// UI
 		gc.save();
 		gc.setFill(Color.BLACK);
-		gc.fillText(String.format("ID: %d\nPower: %s\nScale: %.2f", Pin.PIN_ID, Util.isPowerOn(), this.cameraScale), 60, HEIGHT-100);
+		gc.fillText(String.format("ID: %d\nPower: %s\nScale: %.2f\nEngine: %s", Pin.PIN_ID, Util.isPowerOn(), this.cameraScale, CompiledCircuit.getActive() == null ? "event-driven" : "compiled"), 60, HEIGHT-100);
+		int oscillating = Simulator.getInstance().getOscillating().size();
+		if (oscillating > 0){
+			gc.setFill(Color.RED);
+			gc.fillText(String.format("Oscillation detected, %d gates stopped until an input changes", oscillating), 60, HEIGHT-120);
+			gc.setFill(Color.BLACK);
+		}
+		if (this.showMetrics){
+			SimulationMetrics metrics = SimulationMetrics.getInstance();
+			gc.fillText(String.format("Evaluations/s: %.0f\nTransitions/s: %.0f\nPending events: %d\nSettle latency: %.2f ms\nFrame time: %.2f ms\nLast load: %s", metrics.getEvaluationsPerSecond(), metrics.getTransitionsPerSecond(), metrics.getPendingEvents(), metrics.getSettleLatencyMillis(), metrics.getFrameTimeMillis(), metrics.getLastLoad()), 220, HEIGHT-100);
+		}
 		if (!this.toolbarHidden){
 			gc.setGlobalAlpha(0.5);
 			gc.fillRect(0, 0, WIDTH, TOOLBAR_Y);
@@ -1237,11 +1577,53 @@ public class MainApplication extends Application{
 
 		if (this.tooltip != null) this.tooltip.render();
 
+		if (this.loader != null){
+			renderLoading(gc);
+		}
+		gc.restore();
+	}
+
+	private static boolean isDirty(List<Rectangle2D> regions, Rectangle2D bounds){
+		if (regions == null) return true;
+		for (Rectangle2D region : regions){
+			if (region.intersects(bounds)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Index the gates and the wires of a new project
+	 */
+	private void rebuildIndex(){
+		this.gateIndex.clear();
+		this.wireIndex.clear();
+		for (Gate g : this.gates){
+			g.setIndex(this.gateIndex);
+		}
+		for (Wire w : this.wires){
+			w.setIndex(this.wireIndex);
+		}
+	}
+
+	/**
+	 * Apply the removals requested since the last frame
+	 * @return true if something was removed
+	 */
+	private boolean removeSelected(){
+		boolean removed = !this.gatesToRemove.isEmpty() || !this.pinsToRemove.isEmpty() || !this.wiresToRemove.isEmpty();
+
 		// Remove selected gates
 		for (int i = 0; i < this.gatesToRemove.size(); i++){
 			Gate g = this.gatesToRemove.get(i);
+			List<Bus> connected = g instanceof Bus ? new ArrayList<>(((Bus)g).getConnections()) : List.of();
 			g.destroy(this.wires, this.wiresToRemove);
-			this.gates.remove(g);
+			int index = this.gates.indexOf(g);
+			g.setIndex(null);
+			if (index >= 0){
+				this.gates.remove(index);
+				if (this.journal != null) this.journal.gateRemoved(index);
+				connected.forEach(this::journalGate);
+			}
 		}
 		if (this.gatesToRemove.size() > 0){
 			Pin.PIN_ID = this.gates.stream().flatMap(g -> g.getPins().stream()).mapToInt(p -> p.getId()).max().orElse(-1)+1;
@@ -1252,6 +1634,7 @@ public class MainApplication extends Application{
 		for (int i = 0; i < this.pinsToRemove.size(); i++){
 			Pin p = this.pinsToRemove.get(i);
 			p.destroy(this.gates, this.wires, this.wiresToRemove);
+			journalGate(p.getOwner());
 		}
 		this.pinsToRemove.clear();
 
@@ -1259,11 +1642,23 @@ public class MainApplication extends Application{
 		for (int i = 0; i < this.wiresToRemove.size(); i++){
 			Wire w = this.wiresToRemove.get(i);
 			w.destroy();
-			this.wires.remove(w);
+			w.setIndex(null);
+			int index = this.wires.indexOf(w);
+			if (index >= 0){
+				this.wires.remove(index);
+				if (this.journal != null) this.journal.wireRemoved(index);
+			}
 		}
 		this.wiresToRemove.clear();
+		if (removed) circuitEdited();
+		return removed;
 	}
 	
+	@Override
+	public void stop(){
+		closeJournal();
+	}
+
 	public static void main(String[] args){
 		launch(args);
 	}
@@ -0,0 +1,102 @@
+package com.orangomango.logicsim;
+
+import javafx.concurrent.Task;
+import javafx.scene.canvas.GraphicsContext;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+import com.orangomango.logicsim.core.*;
+import com.orangomango.logicsim.io.BinaryFormat;
+import com.orangomango.logicsim.io.CircuitData;
+import com.orangomango.logicsim.io.DependencyResolver;
+import com.orangomango.logicsim.io.Journal;
+
+/**
+ * Loads a project on a background thread so that the UI keeps running.
+ * The chip files the project depends on are resolved first, the files of the same depth of the
+ * dependency graph are parsed in parallel, then the gates are built using the cached definitions.
+ * The gates are built sequentially because the pin ids are global, the result must be
+ * read on the JavaFX thread when the task succeeds.
+ */
+public class ProjectLoader extends Task<CircuitData>{
+	private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> daemon(r, "project-loader"));
+	private static final ExecutorService PARSER = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> daemon(r, "chip-parser"));
+
+	private File file;
+	private GraphicsContext gc;
+	private List<Gate> gates = new ArrayList<>();
+	private List<Wire> wires = new ArrayList<>();
+	private boolean binary;
+
+	public ProjectLoader(File file, GraphicsContext gc){
+		this.file = file;
+		this.gc = gc;
+	}
+
+	private static Thread daemon(Runnable runnable, String name){
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	public void start(){
+		LOADER.execute(this);
+	}
+
+	public File getFile(){
+		return this.file;
+	}
+
+	public List<Gate> getGates(){
+		return this.gates;
+	}
+
+	public List<Wire> getWires(){
+		return this.wires;
+	}
+
+	public boolean isBinary(){
+		return this.binary;
+	}
+
+	/**
+	 * @return the loaded data, null if the project could not be built
+	 */
+	@Override
+	protected CircuitData call() throws Exception{
+		updateMessage("Reading "+this.file.getName());
+		this.binary = BinaryFormat.isBinary(this.file);
+		long[] times = MainApplication.newLoadTimes();
+		CircuitData data = Journal.read(this.file);
+
+		// Every chip file is parsed once and checked before any chip is built
+		DependencyResolver resolver = new DependencyResolver(chip -> ChipDefinition.get(chip).getData());
+		resolver.setExecutor(PARSER);
+		resolver.setProgressListener((parsed, found) -> {
+			updateMessage("Parsing chips ("+parsed+"/"+found+")");
+			updateProgress(parsed, found);
+		});
+		try {
+			resolver.resolve(this.file, data);
+		} catch (IOException ex){
+			Util.reportError("Invalid dependencies", ex.getMessage());
+			return null;
+		}
+
+		times[1] = System.nanoTime(); // Parsing the chips is part of the parse phase
+
+		updateMessage("Building "+data.getGateCount()+" gates");
+		updateProgress(-1, 1);
+		int backup = Pin.PIN_ID;
+		Pin.PIN_ID = 0;
+		CircuitData result = MainApplication.load(data, this.file, this.gc, this.gates, this.wires, times);
+		if (result == null){
+			Pin.PIN_ID = backup;
+		} else {
+			MainApplication.reportLoadTimes(this.file, this.gates.size(), times);
+		}
+		return result;
+	}
+}
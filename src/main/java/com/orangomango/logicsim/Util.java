@@ -3,15 +3,58 @@ package com.orangomango.logicsim;
 import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.paint.Color;
+import javafx.scene.image.Image;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import com.orangomango.logicsim.core.*;
+import com.orangomango.logicsim.engine.Evaluable;
+import com.orangomango.logicsim.engine.Scheduler;
+import com.orangomango.logicsim.engine.Simulator;
 
 public abstract class Util{
-	public static final int GATE_DELAY = 15;
+	public static final int GATE_DELAY = 15; // Scheduler ticks
 	private static boolean CIRCUIT_POWER = true;
 	public static boolean SHOW_PIN_ID = false;
+	private static BiConsumer<String, String> ERROR_HANDLER = (title, message) -> System.err.println(title+": "+message);
+	private static Consumer<Rectangle2D> REPAINT_HANDLER = rect -> {};
+	private static final Map<String, Image> IMAGES = new ConcurrentHashMap<>();
+
+	/**
+	 * Set how errors found while loading are shown, they are printed by default
+	 */
+	public static void setErrorHandler(BiConsumer<String, String> handler){
+		ERROR_HANDLER = handler;
+	}
+
+	public static void reportError(String title, String message){
+		ERROR_HANDLER.accept(title, message);
+	}
+
+	/**
+	 * Set what happens when an area of the main canvas has to be drawn again, nothing by default
+	 */
+	public static void setRepaintHandler(Consumer<Rectangle2D> handler){
+		REPAINT_HANDLER = handler;
+	}
+
+	/**
+	 * @param rect area in world coordinates, it can be called from any thread
+	 */
+	public static void repaint(Rectangle2D rect){
+		REPAINT_HANDLER.accept(rect);
+	}
+
+	/**
+	 * Images are decoded once and shared by every gate, the gates inside chips too
+	 * @param name resource path, like /switch.png
+	 */
+	public static Image getImage(String name){
+		return IMAGES.computeIfAbsent(name, n -> new Image(Util.class.getResourceAsStream(n)));
+	}
 
 	public static boolean isPowerOn(){
 		return CIRCUIT_POWER;
@@ -31,6 +74,18 @@ public abstract class Util{
 			if (gate instanceof DelayedGate){
 				((DelayedGate)gate).setLastValue(!value); // Force the gate to auto-update
 			}
+			gate.schedule();
+		}
+	}
+
+	/**
+	 * Let the gates stopped because of an oscillation run again
+	 */
+	public static void releaseOscillatingGates(){
+		for (Evaluable e : Simulator.getInstance().resetOscillations()){
+			if (e instanceof Gate){
+				((Gate)e).schedule();
+			}
 		}
 	}
 
@@ -67,15 +122,8 @@ public abstract class Util{
 		return color.getRed()*0.2126+color.getGreen()*0.7152+color.getBlue()*0.0722 < 127/255.0;
 	}
 
-	public static void schedule(Runnable r, int delay){
-		new Thread(() -> {
-			try {
-				Thread.sleep(delay);
-				r.run();
-			} catch (InterruptedException ex){
-				ex.printStackTrace();
-			}
-		}).start();
+	public static Scheduler.Task schedule(Runnable r, int delay){
+		return Scheduler.getInstance().schedule(r, delay);
 	}
 
 	public static List<Point2D[]> getPointsList(Point2D start, Point2D end, List<Point2D> points){
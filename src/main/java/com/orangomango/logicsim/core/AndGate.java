@@ -6,9 +6,11 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.TextAlignment;
 
 import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.engine.Scheduler;
 
 public class AndGate extends Gate implements DelayedGate{
 	private boolean lastValue;
+	private Scheduler.Task pendingTask;
 
 	public AndGate(GraphicsContext gc, Rectangle2D rect){
 		super(gc, "AND", rect, Color.BLUE);
@@ -28,6 +30,16 @@ public class AndGate extends Gate implements DelayedGate{
 		return this.lastValue;
 	}
 
+	@Override
+	public void setPendingTask(Scheduler.Task task){
+		this.pendingTask = task;
+	}
+
+	@Override
+	public Scheduler.Task getPendingTask(){
+		return this.pendingTask;
+	}
+
 	@Override
 	public void update(){
 		super.update();
@@ -5,8 +5,6 @@ import javafx.geometry.Rectangle2D;
 import javafx.scene.paint.Color;
 
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
@@ -14,6 +12,8 @@ public class Bus extends Gate{
 	private boolean on = false;
 	private List<Bus> connections = new ArrayList<>();
 	private int id;
+	private BusGroup group;
+	private int puttingOn, puttingOff;
 
 	private static int BUS_ID = 0;
 
@@ -22,6 +22,7 @@ public class Bus extends Gate{
 		this.id = id;
 		this.label = "Bus #"+this.id;
 		this.labelDown = this.rect.getWidth() <= this.rect.getHeight();
+		this.group = new BusGroup(this);
 	}
 
 	public Bus(GraphicsContext gc, Rectangle2D rect){
@@ -36,20 +37,57 @@ public class Bus extends Gate{
 		if (!this.connections.contains(bus)){
 			this.connections.add(bus);
 			bus.connections.add(this);
+			CompiledCircuit.structureChanged();
+			BusGroup.merge(this, bus);
 		}
 	}
 
 	public void clearConnections(){
+		CompiledCircuit.structureChanged();
 		for (Bus bus : this.connections){
 			bus.connections.remove(this);
 		}
 		this.connections.clear();
+		BusGroup.rebuild(this);
 	}
 
 	public List<Bus> getConnections(){
 		return this.connections;
 	}
 
+	public void addPin(Pin pin){
+		this.pins.add(pin);
+		updateIndex();
+	}
+
+	@Override
+	public List<Gate> getFanout(){
+		List<Gate> fanout = super.getFanout();
+		fanout.addAll(this.group.getBuses());
+		return fanout;
+	}
+
+	public BusGroup getGroup(){
+		return this.group;
+	}
+
+	void setGroup(BusGroup group){
+		this.group = group;
+	}
+
+	int getPuttingOn(){
+		return this.puttingOn;
+	}
+
+	int getPuttingOff(){
+		return this.puttingOff;
+	}
+
+	void setPutting(int on, int off){
+		this.puttingOn = on;
+		this.puttingOff = off;
+	}
+
 	@Override
 	public JSONObject getJSON(){
 		JSONObject json = super.getJSON();
@@ -66,15 +104,29 @@ public class Bus extends Gate{
 	@Override
 	public void destroy(List<Wire> wires, List<Wire> wiresToRemove){
 		super.destroy(wires, wiresToRemove);
+		CompiledCircuit.structureChanged();
 		for (Bus bus : this.connections){
 			bus.connections.remove(this);
 		}
+		this.connections.clear();
+		BusGroup.rebuild(this);
 	}
 
 	public boolean isOn(){
 		return this.on;
 	}
 
+	void setState(boolean on, boolean unstable){
+		Color previous = this.color;
+		this.on = on;
+		if (unstable){
+			this.color = Color.ORANGE;
+		} else {
+			this.color = this.on ? Color.web("#B2FE73") : Color.GRAY;
+		}
+		if (!this.color.equals(previous)) repaint();
+	}
+
 	public boolean isOnBorder(double x, double y){
 		if (this.rect.contains(x, y)){
 			if (this.rect.getWidth() > this.rect.getHeight()){
@@ -108,6 +160,7 @@ public class Bus extends Gate{
 			}
 			this.rect = new Rectangle2D(this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), diff);
 		}
+		updateIndex();
 	}
 
 	public void setRect(Rectangle2D rect){
@@ -121,32 +174,33 @@ public class Bus extends Gate{
 			}
 		}
 		this.rect = rect;
-	}
-
-	private Stream<Pin> buildStream(){
-		Stream<Pin> stream = this.pins.stream();
-		for (int i = 0; i < this.connections.size(); i++){
-			Bus bus = this.connections.get(i);
-			stream = Stream.concat(stream, bus.pins.stream());
-		}
-		return stream;
+		updateIndex();
 	}
 
 	@Override
 	public void update(){
 		super.update();
-		Predicate<Pin> acceptablePins = p -> p.isInput() && p.getAttachedPins().size() > 0 && p.isConnected();
-		buildStream().filter(acceptablePins).forEach(p -> this.on = p.isOn());
-		long puttingOn = buildStream().filter(acceptablePins.and(p -> p.isOn())).count();
-		long puttingOff = buildStream().filter(acceptablePins.and(p -> !p.isOn())).count();
-		if (puttingOn > 0 && puttingOff > 0){
-			// Unstable state where multiple pins are trying to put different data onto the bus
-			this.color = Color.ORANGE;
-			this.on = false;
-		} else {
-			if (puttingOn == 0) this.on = false;
-			this.color = this.on ? Color.web("#B2FE73") : Color.GRAY;
+		int on = 0, off = 0;
+		for (Pin p : this.pins){
+			if (p.isInput() && p.getAttachedPins().size() > 0 && p.isConnected()){
+				if (p.isOn()){
+					on++;
+				} else {
+					off++;
+				}
+			}
+		}
+		BusGroup.update(this, on, off);
+		setState(this.group.isOn(), this.group.hasContention());
+		for (Pin p : this.pins){
+			if (!p.isInput()){
+				p.setSignal(isOn(), isPowered());
+			}
 		}
-		buildStream().filter(p -> !p.isInput()).forEach(p -> p.setSignal(isOn(), isPowered()));
+	}
+
+	@Override
+	protected boolean isBodyDynamic(){
+		return true;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package com.orangomango.logicsim.core;
+
+import java.util.*;
+
+/**
+ * Buses connected together, directly or through other buses, share the same value.
+ * Every bus counts the input pins putting a value onto it, the group keeps the
+ * sum of those counters so that the value and the contention are known in O(1).
+ */
+public class BusGroup{
+	private static final Object LOCK = new Object();
+
+	private List<Bus> buses = new ArrayList<>();
+	private int puttingOn, puttingOff;
+	private volatile boolean on, contention;
+
+	BusGroup(Bus bus){
+		this.buses.add(bus);
+		this.puttingOn = bus.getPuttingOn();
+		this.puttingOff = bus.getPuttingOff();
+		refresh();
+	}
+
+	public List<Bus> getBuses(){
+		return Collections.unmodifiableList(this.buses);
+	}
+
+	public boolean isOn(){
+		return this.on;
+	}
+
+	/**
+	 * @return true if multiple pins are trying to put different data onto the buses
+	 */
+	public boolean hasContention(){
+		return this.contention;
+	}
+
+	private boolean refresh(){
+		boolean contention = this.puttingOn > 0 && this.puttingOff > 0;
+		boolean on = this.puttingOn > 0 && !contention;
+		boolean changed = on != this.on || contention != this.contention;
+		this.on = on;
+		this.contention = contention;
+		return changed;
+	}
+
+	/**
+	 * Replace the counters of a bus, the other buses are scheduled if the value of the group changed
+	 */
+	static void update(Bus bus, int puttingOn, int puttingOff){
+		synchronized (LOCK){
+			BusGroup group = bus.getGroup();
+			group.puttingOn += puttingOn-bus.getPuttingOn();
+			group.puttingOff += puttingOff-bus.getPuttingOff();
+			bus.setPutting(puttingOn, puttingOff);
+			if (group.refresh()){
+				for (Bus b : group.buses){
+					if (b != bus) b.schedule();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Join the groups of two buses that have just been connected
+	 */
+	static void merge(Bus a, Bus b){
+		synchronized (LOCK){
+			BusGroup g1 = a.getGroup();
+			BusGroup g2 = b.getGroup();
+			if (g1 == g2) return;
+			if (g1.buses.size() < g2.buses.size()){
+				BusGroup temp = g1;
+				g1 = g2;
+				g2 = temp;
+			}
+			for (Bus bus : g2.buses){
+				bus.setGroup(g1);
+				g1.buses.add(bus);
+			}
+			g1.puttingOn += g2.puttingOn;
+			g1.puttingOff += g2.puttingOff;
+			g1.refresh();
+			for (Bus bus : g1.buses){
+				bus.schedule();
+			}
+		}
+	}
+
+	/**
+	 * Split the group of the bus again after some connections have been removed
+	 */
+	static void rebuild(Bus bus){
+		synchronized (LOCK){
+			List<Bus> members = bus.getGroup().buses;
+			for (Bus b : members){
+				b.setGroup(new BusGroup(b));
+			}
+			for (Bus b : members){
+				for (Bus other : b.getConnections()){
+					merge(b, other);
+				}
+			}
+			for (Bus b : members){
+				b.schedule();
+			}
+		}
+	}
+}
@@ -7,10 +7,12 @@ import javafx.scene.text.TextAlignment;
 
 import java.util.*;
 import java.io.File;
+import java.io.IOException;
 import org.json.JSONObject;
 
 import com.orangomango.logicsim.MainApplication;
 import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.io.CircuitData;
 
 public class Chip extends Gate{
 	private List<Gate> gates = new ArrayList<>();
@@ -20,19 +22,31 @@ public class Chip extends Gate{
 	private List<Pin> inputPins = new ArrayList<>();
 	private List<Pin> outputPins = new ArrayList<>();
 	private File file;
-	private String name;
-	private JSONObject json;
+	private String name, wrappedName;
+	private ChipDefinition definition;
 
 	public Chip(GraphicsContext gc, Rectangle2D rect, File file){
 		super(gc, "CHIP", rect, Color.BLUE);
 		this.file = file;
 		this.label = file.getName();
 
-		// Load data
+		// Load data, the parsed file and the pin layout are shared with the other instances of this chip
+		try {
+			this.definition = ChipDefinition.get(this.file);
+		} catch (IOException ex){
+			Util.reportError("Chip error", "Could not load the chip "+this.file.getName()+": "+ex.getMessage());
+			return;
+		}
 		Pin.UPDATE_PIN_ID = false;
-		this.json = MainApplication.load(this.file, this.gc, this.gates, this.wires);
+		CircuitData data = MainApplication.load(this.definition.getData(), this.file, this.gc, this.gates, this.wires);
 		Pin.UPDATE_PIN_ID = true;
-		if (this.json == null) return;
+		if (data == null){
+			this.definition = null;
+			return;
+		}
+		for (Gate g : this.gates){
+			g.setParent(this);
+		}
 
 		// Turn on all the subgates
 		if (isPowered()){
@@ -42,20 +56,17 @@ public class Chip extends Gate{
 			}, Util.GATE_DELAY);
 		}
 
-		this.color = Color.color(this.json.getJSONObject("color").getDouble("red"), this.json.getJSONObject("color").getDouble("green"), this.json.getJSONObject("color").getDouble("blue"));
-		this.name = this.json.getString("chipName");
+		this.color = this.definition.getColor();
+		this.name = this.definition.getName();
+		this.wrappedName = this.definition.getWrappedName();
 
-		for (Gate g : this.gates){
-			if (g.getName().equals("SWITCH")){
-				this.inputGates.add(g);
-			} else if (g.getName().equals("LIGHT")){
-				this.outputGates.add(g);
-			}
+		// The gates are built in the order of the data
+		for (int i : this.definition.getInputGates()){
+			this.inputGates.add(this.gates.get(i));
+		}
+		for (int i : this.definition.getOutputGates()){
+			this.outputGates.add(this.gates.get(i));
 		}
-
-		// Sort the gates
-		this.inputGates.sort((g1, g2) -> Double.compare(g1.getRect().getMinY()+g1.getRect().getHeight()/2, g2.getRect().getMinY()+g2.getRect().getHeight()/2));
-		this.outputGates.sort((g1, g2) -> Double.compare(g1.getRect().getMinY()+g1.getRect().getHeight()/2, g2.getRect().getMinY()+g2.getRect().getHeight()/2));
 
 		this.rect = new Rectangle2D(this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), Math.max(this.inputGates.size(), this.outputGates.size())*20+5);
 		double inputOffset = (this.rect.getHeight()-(this.inputGates.size()*15))/(this.inputGates.size()+1);
@@ -72,8 +83,8 @@ public class Chip extends Gate{
 		}
 	}
 
-	public JSONObject getJSONData(){
-		return this.json;
+	public ChipDefinition getDefinition(){
+		return this.definition;
 	}
 
 	public String getName(){
@@ -84,6 +95,30 @@ public class Chip extends Gate{
 		return this.gates;
 	}
 
+	List<Gate> getInputGates(){
+		return this.inputGates;
+	}
+
+	List<Gate> getOutputGates(){
+		return this.outputGates;
+	}
+
+	List<Pin> getInputPins(){
+		return this.inputPins;
+	}
+
+	List<Pin> getOutputPins(){
+		return this.outputPins;
+	}
+
+	/**
+	 * The output pins are written for the lights inside the chip, see Light.getFanout()
+	 */
+	@Override
+	public List<Gate> getFanout(){
+		return new ArrayList<>(this.inputGates);
+	}
+
 	@Override
 	public JSONObject getJSON(){
 		JSONObject json = super.getJSON();
@@ -138,17 +173,14 @@ public class Chip extends Gate{
 
 	@Override
 	public void update(){
-		for (Gate g : this.gates){
-			g.update();
-		}
 		for (int i = 0; i < this.inputPins.size(); i++){
 			Pin pin = this.inputPins.get(i);
 			((Switch)this.inputGates.get(i)).setOn(pin.isOn());
 		}
 		for (int i = 0; i < this.outputGates.size(); i++){
 			Light l = (Light)this.outputGates.get(i);
+			this.outputPins.get(i).setConnected(l.getPins().get(0).isConnected());
 			this.outputPins.get(i).setSignal(l.isOn(), isPowered());
-			this.outputPins.get(i).setConnected(l.getPins().get(0).isConnected(), isPowered());
 		}
 		super.update();
 	}
@@ -163,7 +195,7 @@ public class Chip extends Gate{
 		gc.strokeRoundRect(this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), this.rect.getHeight(), 20, 20);
 		gc.setFill(Util.isDarkColor(this.color) ? Color.WHITE : Color.BLACK);
 		gc.setTextAlign(TextAlignment.CENTER);
-		gc.fillText(Util.wrapString(this.name, 5), this.rect.getMinX()+this.rect.getWidth()/2, this.rect.getMinY()+this.rect.getHeight()/2+5);
+		gc.fillText(this.wrappedName, this.rect.getMinX()+this.rect.getWidth()/2, this.rect.getMinY()+this.rect.getHeight()/2+5);
 		gc.restore();
 	}
 }
\ No newline at end of file
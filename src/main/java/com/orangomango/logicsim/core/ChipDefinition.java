@@ -0,0 +1,122 @@
+package com.orangomango.logicsim.core;
+
+import javafx.scene.paint.Color;
+
+import java.util.*;
+import java.io.*;
+
+import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.io.CircuitData;
+
+/**
+ * Parsed content of a chip file and the layout of its pins, shared by every Chip loaded from that file.
+ * The inner gates keep the signals of one instance, so every Chip still builds its own.
+ * Definitions are cached by canonical path and invalidated when the file is modified,
+ * the least recently used ones are evicted when the cache is full.
+ * The data must not be modified since it is shared.
+ */
+public final class ChipDefinition{
+	private static final int CACHE_SIZE = 64;
+	private static final Map<String, ChipDefinition> CACHE = new LinkedHashMap<>(16, 0.75f, true){
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ChipDefinition> eldest){
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final File file;
+	private final long lastModified;
+	private final CircuitData data;
+	private final String name, wrappedName;
+	private final Color color;
+	private final int[] inputGates, outputGates;
+
+	private ChipDefinition(File file, long lastModified, CircuitData data) throws IOException{
+		if (!data.isChip()){
+			throw new IOException(file.getName()+" is not a chip");
+		}
+		this.file = file;
+		this.lastModified = lastModified;
+		this.data = data;
+		this.name = data.getChipName();
+		this.wrappedName = Util.wrapString(this.name, 5);
+		this.color = Color.color(data.getChipColor(0), data.getChipColor(1), data.getChipColor(2));
+		this.inputGates = sortedGates(data, "SWITCH");
+		this.outputGates = sortedGates(data, "LIGHT");
+	}
+
+	/**
+	 * @return the index of every gate with that name, from top to bottom
+	 */
+	private static int[] sortedGates(CircuitData data, String name){
+		List<Integer> gates = new ArrayList<>();
+		for (int i = 0; i < data.getGateCount(); i++){
+			if (data.getGateName(i).equals(name)){
+				gates.add(i);
+			}
+		}
+		gates.sort((g1, g2) -> Double.compare(data.getGateY(g1)+data.getGateHeight(g1)/2, data.getGateY(g2)+data.getGateHeight(g2)/2));
+		return gates.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * @return the cached definition of the file, parsing it only if it is not cached or it changed
+	 */
+	public static ChipDefinition get(File file) throws IOException{
+		File canonical = file.getCanonicalFile();
+		String key = canonical.getPath();
+		long lastModified = canonical.lastModified();
+		synchronized (CACHE){
+			ChipDefinition definition = CACHE.get(key);
+			if (definition != null && definition.lastModified == lastModified){
+				return definition;
+			}
+		}
+
+		ChipDefinition definition = new ChipDefinition(canonical, lastModified, CircuitData.read(canonical));
+		synchronized (CACHE){
+			CACHE.put(key, definition);
+		}
+		return definition;
+	}
+
+	public static void clearCache(){
+		synchronized (CACHE){
+			CACHE.clear();
+		}
+	}
+
+	public File getFile(){
+		return this.file;
+	}
+
+	public CircuitData getData(){
+		return this.data;
+	}
+
+	public String getName(){
+		return this.name;
+	}
+
+	public String getWrappedName(){
+		return this.wrappedName;
+	}
+
+	public Color getColor(){
+		return this.color;
+	}
+
+	/**
+	 * @return the index of the switches in the data, in the order of the input pins
+	 */
+	public int[] getInputGates(){
+		return this.inputGates.clone();
+	}
+
+	/**
+	 * @return the index of the lights in the data, in the order of the output pins
+	 */
+	public int[] getOutputGates(){
+		return this.outputGates.clone();
+	}
+}
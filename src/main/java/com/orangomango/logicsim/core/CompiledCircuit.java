@@ -0,0 +1,346 @@
+package com.orangomango.logicsim.core;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.engine.*;
+
+/**
+ * Flattens the gates of a workspace, nested chips included, into a Netlist.
+ * When a compiled circuit is active every gate that would be scheduled schedules
+ * the compiled circuit instead: it reads the switches, evaluates the netlist and
+ * writes the resulting states back into the pins so that the UI can render them.
+ */
+public class CompiledCircuit implements Evaluable{
+	private static volatile CompiledCircuit ACTIVE = null;
+	private static volatile int STRUCTURE_VERSION = 0;
+	private static final int PARALLEL_THRESHOLD = 4096; // Cells
+	private static final int PARALLEL_INPUTS = 16; // Changed switches needed to sweep every level instead of following the changes
+
+	private Supplier<List<Gate>> gatesSupplier;
+	private int version = -1;
+	private Netlist netlist;
+	private ParallelEvaluator parallel;
+	private Pin[] pins;
+	private Map<Pin, Integer> pinIndex;
+	private int[] pinNet, pinDriver;
+	private int[] netPinStart, netPins;
+	private Switch[] switches;
+	private int[] switchDriver;
+	private Gate[] cellGate;
+	private List<List<Bus>> busGroups;
+	private int[] busCell;
+	private boolean lastPower;
+
+	public CompiledCircuit(Supplier<List<Gate>> gatesSupplier){
+		this.gatesSupplier = gatesSupplier;
+	}
+
+	public static CompiledCircuit getActive(){
+		return ACTIVE;
+	}
+
+	public static void activate(CompiledCircuit circuit){
+		ACTIVE = circuit;
+		Simulator.getInstance().resetOscillations(); // The compiled circuit finds its own loops
+		circuit.schedule();
+	}
+
+	/**
+	 * Go back to the object-model simulation, starting from the last compiled state
+	 */
+	public static void deactivate(List<Gate> gates){
+		ACTIVE = null;
+		Simulator.getInstance().resetOscillations();
+		resync(gates);
+	}
+
+	private static void resync(List<Gate> gates){
+		for (Gate g : gates){
+			if (g instanceof DelayedGate){
+				List<Pin> pins = g.getPins();
+				((DelayedGate)g).setLastValue(pins.get(pins.size()-1).isOn());
+			}
+			if (g instanceof Chip){
+				resync(((Chip)g).getGates());
+			}
+			g.schedule();
+		}
+	}
+
+	/**
+	 * @return the component the simulator has to evaluate when the given one changed
+	 */
+	public static Evaluable getEvaluable(Gate gate){
+		CompiledCircuit active = ACTIVE;
+		return active == null ? gate : active;
+	}
+
+	/**
+	 * Must be called every time pins, wires, gates or bus connections are added or removed,
+	 * the active circuit is compiled again before its next evaluation
+	 */
+	public static void structureChanged(){
+		STRUCTURE_VERSION++;
+	}
+
+	public void schedule(){
+		Simulator.getInstance().schedule(this);
+	}
+
+	public Netlist getNetlist(){
+		return this.netlist;
+	}
+
+	private static void collect(List<Gate> gates, List<Gate> output){
+		for (Gate g : gates){
+			output.add(g);
+			if (g instanceof Chip){
+				collect(((Chip)g).getGates(), output);
+			}
+		}
+	}
+
+	public void compile(){
+		this.version = STRUCTURE_VERSION;
+		List<Gate> gates = new ArrayList<>();
+		collect(this.gatesSupplier.get(), gates);
+		Set<Gate> compiled = Collections.newSetFromMap(new IdentityHashMap<>());
+		compiled.addAll(gates);
+
+		// Number the pins, the attached ones end up in the same net
+		CircuitFlattener flattener = new CircuitFlattener();
+		List<Pin> pinList = new ArrayList<>();
+		Map<Pin, Integer> index = new IdentityHashMap<>();
+		for (Gate g : gates){
+			for (Pin p : g.getPins()){
+				index.put(p, flattener.addPin());
+				pinList.add(p);
+			}
+		}
+		this.pins = pinList.toArray(new Pin[0]);
+		this.pinIndex = index;
+		for (int i = 0; i < this.pins.length; i++){
+			for (Pin a : this.pins[i].getAttachedPins()){
+				Integer j = index.get(a);
+				if (j != null){
+					flattener.connect(i, j);
+				}
+			}
+		}
+
+		// Build the cells
+		List<Switch> switchList = new ArrayList<>();
+		this.busGroups = new ArrayList<>();
+		List<Integer> busCellList = new ArrayList<>();
+		List<Gate> cellGateList = new ArrayList<>();
+		Set<Bus> visitedBuses = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Gate g : gates){
+			if (g instanceof Switch){
+				if (!compiled.contains(g.getParent())){ // Otherwise it is driven by the pin of its chip
+					flattener.addInput(index.get(g.getPins().get(0)));
+					switchList.add((Switch)g);
+				}
+			} else if (g instanceof Chip){
+				Chip chip = (Chip)g;
+				int cells = flattener.addChip(pins(index, chip.getInputPins()), firstPins(index, chip.getInputGates()), pins(index, chip.getOutputPins()), firstPins(index, chip.getOutputGates()));
+				for (int i = 0; i < cells; i++){
+					cellGateList.add(chip);
+				}
+			} else if (g instanceof Bus){
+				if (visitedBuses.contains(g)) continue;
+				// Connected buses share the same value
+				List<Bus> group = new ArrayList<>(((Bus)g).getGroup().getBuses());
+				visitedBuses.addAll(group);
+				List<Pin> groupPins = new ArrayList<>();
+				for (Bus bus : group){
+					groupPins.addAll(bus.getPins());
+				}
+				boolean[] input = new boolean[groupPins.size()];
+				boolean[] attached = new boolean[groupPins.size()];
+				for (int i = 0; i < input.length; i++){
+					input[i] = groupPins.get(i).isInput();
+					attached[i] = groupPins.get(i).getAttachedPins().size() > 0;
+				}
+				busCellList.add(flattener.addBus(pins(index, groupPins), input, attached));
+				cellGateList.add(g);
+				this.busGroups.add(group);
+			} else if (flattener.addGate(g.getName(), pins(index, g.getPins())) >= 0){
+				cellGateList.add(g);
+			}
+		}
+		this.netlist = flattener.build();
+		this.pinNet = new int[this.pins.length];
+		this.pinDriver = new int[this.pins.length];
+		for (int i = 0; i < this.pins.length; i++){
+			this.pinNet[i] = flattener.getNet(i);
+			this.pinDriver[i] = flattener.getDriver(i);
+		}
+		this.cellGate = cellGateList.toArray(new Gate[0]);
+		this.switches = switchList.toArray(new Switch[0]);
+		this.switchDriver = switchList.stream().mapToInt(sw -> this.pinDriver[index.get(sw.getPins().get(0))]).toArray();
+		this.busCell = busCellList.stream().mapToInt(Integer::intValue).toArray();
+		this.parallel = this.netlist.getCellCount() >= PARALLEL_THRESHOLD ? new ParallelEvaluator(this.netlist) : null;
+
+		// Net -> pins table, used to publish only the nets that changed
+		int netCount = this.netlist.getNetCount();
+		this.netPinStart = new int[netCount+1];
+		for (int net : this.pinNet){
+			this.netPinStart[net+1]++;
+		}
+		for (int i = 0; i < netCount; i++){
+			this.netPinStart[i+1] += this.netPinStart[i];
+		}
+		this.netPins = new int[this.pins.length];
+		int[] fill = new int[netCount];
+		for (int i = 0; i < this.pins.length; i++){
+			this.netPins[this.netPinStart[this.pinNet[i]]+fill[this.pinNet[i]]++] = i;
+		}
+	}
+
+	private static int[] pins(Map<Pin, Integer> index, List<Pin> pins){
+		return pins.stream().mapToInt(index::get).toArray();
+	}
+
+	/**
+	 * @return the first pin of every gate, the pin of the switches and the lights inside a chip
+	 */
+	private static int[] firstPins(Map<Pin, Integer> index, List<Gate> gates){
+		return gates.stream().mapToInt(g -> index.get(g.getPins().get(0))).toArray();
+	}
+
+	public int getNet(Pin pin){
+		return this.pinNet[this.pinIndex.get(pin)];
+	}
+
+	/**
+	 * @return the driver of the switch, or -1 if the switch is not an input of this circuit
+	 */
+	public int getInputDriver(Switch sw){
+		for (int i = 0; i < this.switches.length; i++){
+			if (this.switches[i] == sw) return this.switchDriver[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Evaluate every combination of the top-level switches with the bit-parallel evaluator.
+	 * Inputs and outputs are sorted from top to bottom, like the pins of a chip.
+	 */
+	public TruthTable buildTruthTable(List<Switch> inputs, List<Light> outputs){
+		if (this.netlist == null || this.version != STRUCTURE_VERSION){
+			compile();
+		}
+		Comparator<Gate> byY = (g1, g2) -> Double.compare(g1.getRect().getMinY()+g1.getRect().getHeight()/2, g2.getRect().getMinY()+g2.getRect().getHeight()/2);
+		inputs.clear();
+		outputs.clear();
+		for (Gate g : this.gatesSupplier.get()){
+			if (g instanceof Switch && getInputDriver((Switch)g) >= 0){
+				inputs.add((Switch)g);
+			} else if (g instanceof Light){
+				outputs.add((Light)g);
+			}
+		}
+		inputs.sort(byY);
+		outputs.sort(byY);
+		int[] drivers = inputs.stream().mapToInt(this::getInputDriver).toArray();
+		int[] nets = outputs.stream().mapToInt(l -> getNet(l.getPins().get(0))).toArray();
+		return new BitParallelEvaluator(this.netlist).truthTable(drivers, nets);
+	}
+
+	/**
+	 * Copy the value of the switches into the netlist
+	 * @return the amount of switches that changed
+	 */
+	public int readInputs(){
+		int changed = 0;
+		for (int i = 0; i < this.switches.length; i++){
+			boolean on = this.switches[i].isOn();
+			if (this.netlist.isDriverOn(this.switchDriver[i]) != on) changed++;
+			this.netlist.setInput(this.switchDriver[i], on);
+		}
+		return changed;
+	}
+
+	private void publishPin(int i, boolean power){
+		int driver = this.pinDriver[i];
+		if (!power){
+			this.pins[i].setState(false, this.pins[i].isConnected());
+		} else if (driver >= 0){
+			this.pins[i].setState(this.netlist.isDriverOn(driver), this.netlist.isDriverConnected(driver));
+		} else {
+			this.pins[i].setState(this.netlist.isOn(this.pinNet[i]), !this.netlist.isFloating(this.pinNet[i]));
+		}
+	}
+
+	/**
+	 * Write the compiled state back into the pins
+	 * @param full publish every pin instead of only the ones whose net changed
+	 */
+	public void publish(boolean full){
+		boolean power = Util.isPowerOn();
+		if (full || power != this.lastPower){
+			for (int i = 0; i < this.pins.length; i++){
+				publishPin(i, power);
+			}
+		} else {
+			for (int c = 0; c < this.netlist.getChangedCount(); c++){
+				int net = this.netlist.getChanged(c);
+				for (int i = this.netPinStart[net]; i < this.netPinStart[net+1]; i++){
+					publishPin(this.netPins[i], power);
+				}
+			}
+		}
+		this.netlist.clearChanged();
+		this.lastPower = power;
+		for (int i = 0; i < this.busCell.length; i++){
+			boolean contention = power && this.netlist.hasContention(this.busCell[i]);
+			boolean on = power && this.netlist.getBusValue(this.busCell[i]);
+			for (Bus bus : this.busGroups.get(i)){
+				bus.setState(on, contention);
+			}
+		}
+	}
+
+	@Override
+	public void update(){
+		boolean full = false;
+		if (this.netlist == null || this.version != STRUCTURE_VERSION){
+			compile();
+			full = true;
+		}
+		int changedInputs = readInputs();
+		long evaluations = getEvaluationCount();
+
+		// The netlist keeps the state, sweeping every level only pays off when many sources changed
+		if (this.parallel != null && (full || changedInputs >= PARALLEL_INPUTS)){
+			this.parallel.loadState();
+			if (this.parallel.evaluate() == 0){
+				this.netlist.loadState(this.parallel, 0); // Every lane holds the same vector
+			} else if (!this.netlist.evaluate()){
+				reportLoop(); // The sweeps do not tell which cells loop, the serial evaluator finds them
+			}
+		} else if (!this.netlist.evaluate()){
+			reportLoop();
+		}
+		SimulationMetrics.getInstance().countEvaluations(getEvaluationCount()-evaluations);
+		publish(full);
+	}
+
+	private long getEvaluationCount(){
+		return this.netlist.getEvaluationCount()+(this.parallel == null ? 0 : this.parallel.getEvaluationCount());
+	}
+
+	/**
+	 * Report the gates of the loop that does not settle and stop it until an input changes
+	 */
+	private void reportLoop(){
+		Set<Gate> loop = new LinkedHashSet<>();
+		for (int cell : this.netlist.getOscillatingCells()){
+			loop.add(this.cellGate[cell]);
+		}
+		this.netlist.halt();
+		Simulator.getInstance().reportOscillation(loop);
+	}
+}
@@ -4,15 +4,22 @@ import java.util.function.Consumer;
 import java.util.function.BooleanSupplier;
 
 import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.engine.Scheduler;
 
 public interface DelayedGate{
 	public boolean getLastValue();
 	public void setLastValue(boolean v);
+	public Scheduler.Task getPendingTask();
+	public void setPendingTask(Scheduler.Task task);
 
 	public default void applyValue(BooleanSupplier value, Consumer<Boolean> consumer){
-		if (value.getAsBoolean() != getLastValue()){
-			Util.schedule(() -> consumer.accept(value.getAsBoolean()), Util.GATE_DELAY);
-			setLastValue(value.getAsBoolean());
+		final boolean v = value.getAsBoolean();
+		if (v != getLastValue()){
+			if (getPendingTask() != null){
+				getPendingTask().cancel(); // This transition replaces the previous one
+			}
+			setPendingTask(Util.schedule(() -> consumer.accept(v), Util.GATE_DELAY));
+			setLastValue(v);
 		}
 	}
 }
\ No newline at end of file
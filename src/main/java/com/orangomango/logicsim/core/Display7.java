@@ -4,6 +4,8 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
 
+import com.orangomango.logicsim.Util;
+
 public class Display7 extends Gate{
 	private Image image;
 	private DisplayPiece[] pieces = new DisplayPiece[7];
@@ -31,19 +33,19 @@ public class Display7 extends Gate{
 	public Display7(GraphicsContext gc, Rectangle2D rect){
 		super(gc, "DISPLAY7", rect, null);
 		this.rect = new Rectangle2D(this.rect.getMinX(), this.rect.getMinY(), 70, 150);
-		this.image = new Image(getClass().getResourceAsStream("/display.png"));
+		this.image = Util.getImage("/display.png");
 		this.label = "7 segment display";
 		for (int i = 0; i < 7; i++){
 			this.pins.add(new Pin(this, new Rectangle2D(rect.getMinX()-15, rect.getMinY()+20*i, 15, 15), true));
 		}
 
-		this.pieces[0] = new DisplayPiece(new Image(getClass().getResourceAsStream("/display-h.png")), this.rect.getMinX()+6*2, this.rect.getMinY()+5*2);
-		this.pieces[1] = new DisplayPiece(new Image(getClass().getResourceAsStream("/display-v.png")), this.rect.getMinX()+26*2, this.rect.getMinY()+11*2);
-		this.pieces[2] = new DisplayPiece(new Image(getClass().getResourceAsStream("/display-v.png")), this.rect.getMinX()+26*2, this.rect.getMinY()+39*2);
-		this.pieces[3] = new DisplayPiece(new Image(getClass().getResourceAsStream("/display-h.png")), this.rect.getMinX()+6*2, this.rect.getMinY()+63*2);
-		this.pieces[4] = new DisplayPiece(new Image(getClass().getResourceAsStream("/display-v.png")), this.rect.getMinX()+3*2, this.rect.getMinY()+39*2);
-		this.pieces[5] = new DisplayPiece(new Image(getClass().getResourceAsStream("/display-v.png")), this.rect.getMinX()+3*2, this.rect.getMinY()+11*2);
-		this.pieces[6] = new DisplayPiece(new Image(getClass().getResourceAsStream("/display-h.png")), this.rect.getMinX()+6*2, this.rect.getMinY()+34*2);
+		this.pieces[0] = new DisplayPiece(Util.getImage("/display-h.png"), this.rect.getMinX()+6*2, this.rect.getMinY()+5*2);
+		this.pieces[1] = new DisplayPiece(Util.getImage("/display-v.png"), this.rect.getMinX()+26*2, this.rect.getMinY()+11*2);
+		this.pieces[2] = new DisplayPiece(Util.getImage("/display-v.png"), this.rect.getMinX()+26*2, this.rect.getMinY()+39*2);
+		this.pieces[3] = new DisplayPiece(Util.getImage("/display-h.png"), this.rect.getMinX()+6*2, this.rect.getMinY()+63*2);
+		this.pieces[4] = new DisplayPiece(Util.getImage("/display-v.png"), this.rect.getMinX()+3*2, this.rect.getMinY()+39*2);
+		this.pieces[5] = new DisplayPiece(Util.getImage("/display-v.png"), this.rect.getMinX()+3*2, this.rect.getMinY()+11*2);
+		this.pieces[6] = new DisplayPiece(Util.getImage("/display-h.png"), this.rect.getMinX()+6*2, this.rect.getMinY()+34*2);
 	}
 
 	@Override
@@ -59,6 +61,10 @@ public class Display7 extends Gate{
 	@Override
 	protected void renderGate(GraphicsContext gc){
 		gc.drawImage(this.image, this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), this.rect.getHeight());
+	}
+
+	@Override
+	protected void renderState(GraphicsContext gc){
 		for (int i = 0; i < 7; i++){
 			if (this.pins.get(i).isOn()) this.pieces[i].render(gc);
 		}
@@ -7,21 +7,30 @@ import javafx.scene.text.TextAlignment;
 import javafx.scene.input.MouseEvent;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
 import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.engine.Evaluable;
+import com.orangomango.logicsim.engine.Simulator;
 
-public abstract class Gate{
+public abstract class Gate implements Evaluable{
 	protected GraphicsContext gc;
 	protected Rectangle2D rect;
 	protected Color color;
 	protected Runnable onClick;
-	protected List<Pin> pins = new ArrayList<>();
+	protected List<Pin> pins = new CopyOnWriteArrayList<>(); // Read by the simulator thread while pins are added
 	private boolean power;
 	private String name;
+	private Gate parent;
 	protected String label = "Gate";
 	protected boolean labelDown = true;
+	private String boundsLabel; // Label the size and the text below were computed for
+	private String wrappedLabel;
+	private double labelWidth, labelHeight;
+	private SpatialIndex<Gate> index;
+	private volatile Rectangle2D bounds; // Computed by the UI thread, read by the simulator thread to repaint the gate
 
 	public Gate(GraphicsContext gc, String name, Rectangle2D rect, Color color){
 		this.gc = gc;
@@ -32,7 +41,7 @@ public abstract class Gate{
 	}
 
 	public void setPins(List<Pin> pins){
-		this.pins = pins;
+		this.pins = new CopyOnWriteArrayList<>(pins);
 		for (Pin p : this.pins){
 			p.setOwner(this);
 		}
@@ -59,6 +68,83 @@ public abstract class Gate{
 		for (Pin p : this.pins){
 			p.move(deltaX, deltaY);
 		}
+		updateIndex();
+	}
+
+	/**
+	 * Keep the gate in the index of its board while it moves, null to remove it
+	 */
+	public void setIndex(SpatialIndex<Gate> index){
+		if (this.index != null) this.index.remove(this);
+		this.index = index;
+		updateIndex();
+	}
+
+	/**
+	 * The area covered by the gate changed, the wires of its pins follow it
+	 */
+	protected void updateIndex(){
+		this.bounds = computeBounds();
+		if (this.index != null) this.index.put(this, this.bounds);
+		for (Pin p : this.pins){
+			for (Wire w : p.getWires()){
+				w.geometryChanged();
+			}
+		}
+	}
+
+	/**
+	 * @return the area covered by the gate, its pins, its outline and its label, null until the gate is placed on a board
+	 */
+	public Rectangle2D getBounds(){
+		return this.bounds;
+	}
+
+	private Rectangle2D computeBounds(){
+		getWrappedLabel();
+		double minX = this.rect.getMinX()-10;
+		double minY = this.rect.getMinY()-10;
+		double maxX = this.rect.getMaxX()+10;
+		double maxY = this.rect.getMaxY()+10;
+		if (this.labelDown){
+			double center = this.rect.getMinX()+this.rect.getWidth()/2;
+			minX = Math.min(minX, center-this.labelWidth/2);
+			maxX = Math.max(maxX, center+this.labelWidth/2);
+			maxY = Math.max(maxY, this.rect.getMaxY()+this.labelHeight+10);
+		} else {
+			double center = this.rect.getMinY()+this.rect.getHeight()/2;
+			maxX = Math.max(maxX, this.rect.getMaxX()+this.labelWidth);
+			minY = Math.min(minY, center-15);
+			maxY = Math.max(maxY, center+this.labelHeight);
+		}
+		for (Pin p : this.pins){
+			minX = Math.min(minX, p.getRect().getMinX()-2);
+			minY = Math.min(minY, p.getRect().getMinY()-2);
+			maxX = Math.max(maxX, p.getRect().getMaxX()+2);
+			maxY = Math.max(maxY, p.getRect().getMaxY()+2);
+		}
+		return new Rectangle2D(minX, minY, maxX-minX, maxY-minY);
+	}
+
+	private String getWrappedLabel(){
+		if (this.boundsLabel != this.label){
+			this.wrappedLabel = Util.wrapString(this.label, 7);
+			String[] lines = this.wrappedLabel.split("\n");
+			this.labelWidth = Arrays.stream(lines).mapToInt(String::length).max().orElse(0)*8+10;
+			this.labelHeight = lines.length*15+10;
+			this.boundsLabel = this.label;
+		}
+		return this.wrappedLabel;
+	}
+
+	/**
+	 * Ask for the gate to be drawn again, only gates on the main canvas are repainted
+	 */
+	public void repaint(){
+		Rectangle2D bounds = this.bounds;
+		if (this.parent == null && bounds != null){
+			Util.repaint(bounds);
+		}
 	}
 
 	public Pin getPin(double x, double y){
@@ -74,6 +160,34 @@ public abstract class Gate{
 		return this.name;
 	}
 
+	public void setParent(Gate parent){
+		this.parent = parent;
+	}
+
+	public Gate getParent(){
+		return this.parent;
+	}
+
+	/**
+	 * Drop the output change still on its way, the gate starts again from its output pin when the loop is released
+	 */
+	@Override
+	public void halt(){
+		if (this instanceof DelayedGate){
+			DelayedGate gate = (DelayedGate)this;
+			if (gate.getPendingTask() != null) gate.getPendingTask().cancel();
+			gate.setPendingTask(null);
+			gate.setLastValue(this.pins.get(this.pins.size()-1).isOn());
+		}
+	}
+
+	/**
+	 * Ask the simulator to re-evaluate this gate
+	 */
+	public void schedule(){
+		Simulator.getInstance().schedule(CompiledCircuit.getEvaluable(this));
+	}
+
 	public void destroy(List<Wire> wires, List<Wire> wiresToRemove){
 		for (Pin p : this.pins){
 			for (Pin attached : p.getAttachedPins()){
@@ -83,8 +197,27 @@ public abstract class Gate{
 		}
 	}
 
+	/**
+	 * @return the gates reading the output pins of this gate
+	 */
+	@Override
+	public List<Gate> getFanout(){
+		List<Gate> fanout = new ArrayList<>();
+		for (Pin p : this.pins){
+			if (!p.isInput()) addReaders(p, fanout);
+		}
+		return fanout;
+	}
+
+	protected static void addReaders(Pin pin, List<Gate> output){
+		for (Pin p : pin.getNet().getPins()){
+			if (p.isInput() && p.getOwner() != null) output.add(p.getOwner());
+		}
+	}
+
 	public void setLabel(String value){
 		this.label = value;
+		updateIndex();
 	}
 
 	public String getLabel(){
@@ -104,9 +237,10 @@ public abstract class Gate{
 		return this.power;
 	}
 
+	@Override
 	public void update(){
 		for (Pin p : this.pins){
-			p.updateAttachedPins(this.power);
+			p.updateFromNet(this.power);
 		}
 	}
 
@@ -119,19 +253,80 @@ public abstract class Gate{
 		gc.fillRect(this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), this.rect.getHeight());
 	}
 
+	/**
+	 * Draw the parts of the gate that depend on the signals, over the body
+	 */
+	protected void renderState(GraphicsContext gc){
+	}
+
+	/**
+	 * @return true if renderGate depends on the signals, the body can't be cached then
+	 */
+	protected boolean isBodyDynamic(){
+		return false;
+	}
+
+	/**
+	 * Draw the parts of the gate that only change when the gate is edited
+	 */
+	public void renderStatic(GraphicsContext gc){
+		if (!isBodyDynamic()) renderGate(gc);
+		renderLabel(gc);
+	}
+
+	/**
+	 * Draw the parts of the gate that renderStatic leaves out
+	 */
+	public void renderDynamic(GraphicsContext gc){
+		if (isBodyDynamic()) renderGate(gc);
+		renderState(gc);
+		renderOverlay(gc);
+	}
+
+	/**
+	 * Draw the gate as a flat rectangle without pins and label, used when the board is zoomed out
+	 */
+	public void renderSimple(GraphicsContext gc){
+		if (isBodyDynamic()){
+			renderGate(gc);
+		} else {
+			gc.setFill(this.color == null ? Color.DARKGRAY : this.color);
+			gc.fillRect(this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), this.rect.getHeight());
+		}
+	}
+
 	public void render(GraphicsContext gc){
 		renderGate(gc);
+		renderState(gc);
+		renderOverlay(gc);
+		renderLabel(gc);
+	}
+
+	/**
+	 * Draw the oscillation marker and the pins
+	 */
+	private void renderOverlay(GraphicsContext gc){
+		if (Simulator.getInstance().isOscillating(this)){
+			gc.save();
+			gc.setStroke(Color.RED);
+			gc.setLineWidth(3);
+			gc.strokeRect(this.rect.getMinX()-3, this.rect.getMinY()-3, this.rect.getWidth()+6, this.rect.getHeight()+6);
+			gc.restore();
+		}
 		for (Pin pin : this.pins){
 			pin.render(gc, this.color);
 		}
+	}
+
+	private void renderLabel(GraphicsContext gc){
 		gc.setFill(Color.BLACK);
 		gc.save();
 		if (this.labelDown){
 			gc.setTextAlign(TextAlignment.CENTER);
-			gc.fillText(Util.wrapString(this.label, 7), this.rect.getMinX()+this.rect.getWidth()/2, this.rect.getMaxY()+20);
+			gc.fillText(getWrappedLabel(), this.rect.getMinX()+this.rect.getWidth()/2, this.rect.getMaxY()+20);
 		} else {
 			gc.setTextAlign(TextAlignment.LEFT);
-			gc.fillText(Util.wrapString(this.label, 7), this.rect.getMaxX()+6, this.rect.getMinY()+this.rect.getHeight()/2);
+			gc.fillText(getWrappedLabel(), this.rect.getMaxX()+6, this.rect.getMinY()+this.rect.getHeight()/2);
 		}
 		gc.restore();
 	}
@@ -4,12 +4,16 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
 
+import java.util.*;
+
+import com.orangomango.logicsim.Util;
+
 public class Light extends Gate{
 	protected Image image;
 
 	public Light(GraphicsContext gc, Rectangle2D rect){
 		super(gc, "LIGHT", rect, null);
-		this.image = new Image(getClass().getResourceAsStream("/light.png"));
+		this.image = Util.getImage("/light.png");
 		this.pins.add(new Pin(this, new Rectangle2D(rect.getMinX()-7, rect.getMinY()+7, 15, 15), true));
 		this.label = "Light";
 	}
@@ -18,8 +22,32 @@ public class Light extends Gate{
 		return this.pins.get(0).isOn();
 	}
 
+	@Override
+	public void schedule(){
+		super.schedule();
+		if (getParent() != null){
+			getParent().schedule(); // The chip has to forward the new value to its output pin
+		}
+	}
+
+	@Override
+	public List<Gate> getFanout(){
+		List<Gate> fanout = new ArrayList<>();
+		if (getParent() instanceof Chip){
+			Chip chip = (Chip)getParent();
+			int i = chip.getOutputGates().indexOf(this);
+			if (i >= 0) addReaders(chip.getOutputPins().get(i), fanout);
+		}
+		return fanout;
+	}
+
 	@Override
 	protected void renderGate(GraphicsContext gc){
 		gc.drawImage(this.image, 1+(isOn() ? 0 : 52), 1, 50, 50, this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), this.rect.getHeight());
 	}
+
+	@Override
+	protected boolean isBodyDynamic(){
+		return true;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.orangomango.logicsim.core;
+
+import java.util.*;
+
+/**
+ * Group of electrically connected pins.
+ * The output pins of a net are its drivers: the net is on when at least one connected
+ * driver is on, and it is floating when it has drivers but all of them are disconnected.
+ * A driver changing only updates the counters, the input pins are written when the
+ * state of the net changes.
+ */
+public class Net{
+	private static final Object LOCK = new Object();
+
+	private List<Pin> pins = new ArrayList<>();
+	private int drivers, activeDrivers, disconnectedDrivers;
+	private volatile boolean on, floating;
+
+	Net(Pin pin){
+		this.pins.add(pin);
+		count(pin);
+		this.on = this.activeDrivers > 0;
+		this.floating = isFloating(this.drivers, this.disconnectedDrivers);
+	}
+
+	private static boolean isFloating(int drivers, int disconnected){
+		return drivers > 0 && disconnected == drivers;
+	}
+
+	private void count(Pin pin){
+		if (!pin.isInput()){
+			this.drivers++;
+			if (pin.isOn() && pin.isConnected()) this.activeDrivers++;
+			if (!pin.isConnected()) this.disconnectedDrivers++;
+		}
+	}
+
+	public boolean isOn(){
+		return this.on;
+	}
+
+	public boolean isFloating(){
+		return this.floating;
+	}
+
+	public int getDriverCount(){
+		return this.drivers;
+	}
+
+	public List<Pin> getPins(){
+		return Collections.unmodifiableList(this.pins);
+	}
+
+	/**
+	 * Called by a driver after its state changed
+	 * @param publish write the new state into the input pins, otherwise only the counters are updated
+	 */
+	void driverChanged(boolean wasActive, boolean wasConnected, boolean active, boolean connected, boolean publish){
+		synchronized (LOCK){
+			if (wasActive != active) this.activeDrivers += active ? 1 : -1;
+			if (wasConnected != connected) this.disconnectedDrivers += connected ? -1 : 1;
+			boolean on = this.activeDrivers > 0;
+			boolean floating = isFloating(this.drivers, this.disconnectedDrivers);
+			if (on != this.on || floating != this.floating){
+				this.on = on;
+				this.floating = floating;
+				if (publish) publish(this.pins);
+			}
+		}
+	}
+
+	private void publish(List<Pin> pins){
+		for (Pin p : pins){
+			if (p.isInput()){
+				p.setNetState(this.on, !this.floating);
+			}
+		}
+	}
+
+	/**
+	 * Join the nets of two pins that have just been attached
+	 */
+	static void merge(Pin a, Pin b){
+		synchronized (LOCK){
+			Net n1 = a.getNet();
+			Net n2 = b.getNet();
+			if (n1 == n2) return;
+			if (n1.pins.size() < n2.pins.size()){
+				Net temp = n1;
+				n1 = n2;
+				n2 = temp;
+			}
+			for (Pin p : n2.pins){
+				p.setNet(n1);
+				n1.pins.add(p);
+			}
+			n1.drivers += n2.drivers;
+			n1.activeDrivers += n2.activeDrivers;
+			n1.disconnectedDrivers += n2.disconnectedDrivers;
+			boolean on = n1.activeDrivers > 0;
+			boolean floating = isFloating(n1.drivers, n1.disconnectedDrivers);
+			boolean changed = on != n1.on || floating != n1.floating;
+			n1.on = on;
+			n1.floating = floating;
+			n1.publish(changed ? n1.pins : n2.pins);
+		}
+	}
+
+	/**
+	 * Split the net of the pin again after an attachment has been removed
+	 */
+	static void rebuild(Pin pin){
+		synchronized (LOCK){
+			List<Pin> members = pin.getNet().pins;
+			Set<Pin> memberSet = Collections.newSetFromMap(new IdentityHashMap<>());
+			memberSet.addAll(members);
+			for (Pin p : members){
+				p.setNet(new Net(p));
+			}
+			for (Pin p : members){
+				for (Pin a : p.getAttachedPins()){
+					if (memberSet.contains(a)) merge(p, a);
+				}
+			}
+			for (Pin p : members){
+				p.getNet().publish(Collections.singletonList(p));
+			}
+		}
+	}
+}
@@ -6,9 +6,11 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.TextAlignment;
 
 import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.engine.Scheduler;
 
 public class NotGate extends Gate implements DelayedGate{
 	private boolean lastValue;
+	private Scheduler.Task pendingTask;
 
 	public NotGate(GraphicsContext gc, Rectangle2D rect){
 		super(gc, "NOT", rect, Color.ORANGE);
@@ -27,6 +29,16 @@ public class NotGate extends Gate implements DelayedGate{
 		return this.lastValue;
 	}
 
+	@Override
+	public void setPendingTask(Scheduler.Task task){
+		this.pendingTask = task;
+	}
+
+	@Override
+	public Scheduler.Task getPendingTask(){
+		return this.pendingTask;
+	}
+
 	@Override
 	public void update(){
 		super.update();
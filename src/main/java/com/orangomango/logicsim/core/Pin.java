@@ -7,19 +7,23 @@ import javafx.scene.text.TextAlignment;
 import javafx.scene.text.Font;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
 import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.engine.SimulationMetrics;
 
 public class Pin{
 	private Rectangle2D rect;
 	private volatile boolean on;
-	private List<Pin> attached = new ArrayList<>();
+	private List<Pin> attached = new CopyOnWriteArrayList<>(); // Edited by the UI thread while the simulator reads it
+	private List<Wire> wires = new CopyOnWriteArrayList<>(); // Read by the simulator thread to repaint them
 	private boolean doInput;
 	private int id;
 	private boolean connected = true;
 	private Gate owner;
+	private Net net;
 	private static final Font FONT = new Font("sans-serif", 10);
 
 	public static int PIN_ID = 0;
@@ -30,6 +34,7 @@ public class Pin{
 		this.rect = r;
 		this.doInput = doIn;
 		this.id = PIN_ID++;
+		this.net = new Net(this);
 	}
 
 	public void setOwner(Gate owner){
@@ -40,13 +45,17 @@ public class Pin{
 		return this.owner;
 	}
 
-	public Pin(JSONObject json){
-		this.rect = new Rectangle2D(json.getJSONObject("rect").getDouble("x"), json.getJSONObject("rect").getDouble("y"), json.getJSONObject("rect").getDouble("w"), json.getJSONObject("rect").getDouble("h"));
-		this.doInput = json.getBoolean("doInput");
-		this.id = json.getInt("id");
+	/**
+	 * Pin read from a file, its owner is set later
+	 */
+	public Pin(int id, Rectangle2D rect, boolean doIn){
+		this.rect = rect;
+		this.doInput = doIn;
+		this.id = id;
 		if (UPDATE_PIN_ID){
 			PIN_ID = Math.max(PIN_ID, this.id+1);
 		}
+		this.net = new Net(this);
 	}
 
 	public JSONObject getJSON(){
@@ -77,6 +86,9 @@ public class Pin{
 			}
 		}
 		this.owner.getPins().remove(this);
+		this.owner.updateIndex();
+		CompiledCircuit.structureChanged();
+		this.owner.schedule();
 		if (this.id == PIN_ID-1){
 			PIN_ID--;
 		}
@@ -90,10 +102,19 @@ public class Pin{
 		return (this.rect.getMinY()+this.rect.getMaxY())/2;
 	}
 
-	public void setConnected(boolean c, boolean power){
-		this.connected = c;
-		if (!this.connected){
-			setSignal(false, power);
+	/**
+	 * Connect or disconnect the pin from its net, an output pin keeps its value and drives it again when it connects
+	 */
+	public void setConnected(boolean c){
+		if (this.connected != c){
+			boolean active = this.on && this.connected;
+			this.connected = c;
+			repaint();
+			if (this.doInput){
+				notifyOwner();
+			} else {
+				this.net.driverChanged(active, !c, this.on && c, c, true);
+			}
 		}
 	}
 
@@ -107,6 +128,9 @@ public class Pin{
 
 	public void setRect(Rectangle2D rect){
 		this.rect = rect;
+		for (Wire w : this.wires){
+			w.geometryChanged();
+		}
 	}
 
 	public Rectangle2D getRect(){
@@ -120,6 +144,15 @@ public class Pin{
 	public void attach(Pin o){
 		if (!this.attached.contains(o)){
 			this.attached.add(o);
+			Net.merge(this, o);
+			CompiledCircuit.structureChanged();
+			notifyOwner();
+		}
+	}
+
+	public void notifyOwner(){
+		if (this.owner != null){
+			this.owner.schedule();
 		}
 	}
 
@@ -127,50 +160,120 @@ public class Pin{
 		return this.attached;
 	}
 
-	private boolean hasOnPin(){
-		for (Pin p : this.attached){
-			if (p.isOn() && !p.isInput()){
-				return true;
-			}
+	/**
+	 * Remove an attachment, the net is split if needed
+	 */
+	public void detach(Pin o){
+		if (this.attached.remove(o)){
+			Net.rebuild(this);
+			CompiledCircuit.structureChanged();
 		}
-		return false;
 	}
 
-	public void updateAttachedPins(boolean power){
-		if (!this.isInput()){ // Only output pins decide.
-			if (this.on){
-				for (Pin p : this.attached){
-					p.setSignal(true, power);
-					p.setConnected(this.connected, power);
-				}
-			} else {
-				for (Pin p : this.attached){
-					if (!p.hasOnPin()){
-						p.setSignal(false, power);
-					}
-					p.setConnected(this.connected, power);
-				}
-			}
+	public Net getNet(){
+		return this.net;
+	}
+
+	void setNet(Net net){
+		this.net = net;
+	}
+
+	/**
+	 * Read the state of the net, only input pins are affected
+	 */
+	public void updateFromNet(boolean power){
+		if (this.doInput){
+			setNetState(power && this.net.isOn(), !this.net.isFloating());
+		}
+	}
+
+	void setNetState(boolean on, boolean connected){
+		if (this.on != on){
+			SimulationMetrics.getInstance().countTransitions(1);
+		}
+		if (this.on != on || this.connected != connected){
+			this.on = on;
+			this.connected = connected;
+			repaint();
+			notifyOwner();
 		}
 	}
 
 	public void setSignal(boolean on, boolean power){
-		if ((!power || !this.connected) && on){
+		if (!power && on){
 			return; // Power disabled
 		}
+		if (this.on != on){
+			SimulationMetrics.getInstance().countTransitions(1);
+			boolean active = this.on && this.connected;
+			this.on = on;
+			repaint();
+			if (this.doInput){
+				notifyOwner();
+			} else {
+				this.net.driverChanged(active, this.connected, on && this.connected, this.connected, true);
+			}
+		}
+	}
+
+	/**
+	 * Set the state computed by a compiled circuit, without scheduling the owner
+	 */
+	void setState(boolean on, boolean connected){
+		if (this.on != on){
+			SimulationMetrics.getInstance().countTransitions(1);
+		}
+		boolean active = this.on && this.connected;
+		boolean wasConnected = this.connected;
+		if (this.on != on || this.connected != connected) repaint();
 		this.on = on;
+		this.connected = connected;
+		if (!this.doInput){
+			this.net.driverChanged(active, wasConnected, on && connected, connected, false);
+		}
 	}
 
 	public boolean isOn(){
 		return this.on;
 	}
 
+	/**
+	 * @return true if the pin is on and connected, a disconnected output pin keeps its value without driving the net
+	 */
+	public boolean isActive(){
+		return this.on && this.connected;
+	}
+
+	void addWire(Wire wire){
+		this.wires.add(wire);
+	}
+
+	void removeWire(Wire wire){
+		this.wires.remove(wire);
+	}
+
+	public List<Wire> getWires(){
+		return this.wires;
+	}
+
+	/**
+	 * The state shown by the pin and by its wires changed
+	 */
+	private void repaint(){
+		if (this.owner != null && this.owner.getParent() == null){
+			this.owner.repaint();
+			for (Wire w : this.wires){
+				Util.repaint(w.getBounds());
+			}
+		}
+	}
+
 	public int getId(){
 		return this.id;
 	}
 
 	public void render(GraphicsContext gc, Color gateColor){
-		gc.setFill(this.on ? Color.GREEN : Color.BLACK);
+		gc.setFill(isActive() ? Color.GREEN : Color.BLACK);
 		gc.fillOval(this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), this.rect.getHeight());
 		gc.setStroke(this.doInput ? Color.BLUE : Color.RED);
 		if (!this.connected) gc.setStroke(Color.PURPLE);
@@ -0,0 +1,168 @@
+package com.orangomango.logicsim.core;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Uniform grid over the bounds of the items of a board, used to find the items
+ * under the mouse or on the screen without looking at all of them.
+ * Queries return the items in the order they were first added, like the board lists.
+ */
+public class SpatialIndex<T>{
+	private static final double CELL_SIZE = 256;
+
+	private static class Entry<T>{
+		private T item;
+		private long order;
+		private Rectangle2D bounds;
+		private int minCol, minRow, maxCol, maxRow;
+		private int mark;
+
+		private Entry(T item, long order){
+			this.item = item;
+			this.order = order;
+		}
+	}
+
+	private Map<Long, List<Entry<T>>> cells = new HashMap<>();
+	private Map<T, Entry<T>> entries = new HashMap<>();
+	private long nextOrder;
+	private int queryMark;
+	private Consumer<Rectangle2D> listener = area -> {};
+
+	/**
+	 * Add an item or update the area covered by an item already in the index
+	 */
+	public void put(T item, Rectangle2D bounds){
+		this.listener.accept(bounds); // The item can change without moving, like a new label
+		Entry<T> entry = this.entries.get(item);
+		if (entry == null){
+			entry = new Entry<>(item, this.nextOrder++);
+			this.entries.put(item, entry);
+		} else if (entry.bounds.equals(bounds)){
+			return;
+		} else {
+			this.listener.accept(entry.bounds);
+			removeCells(entry);
+		}
+		entry.bounds = bounds;
+		entry.minCol = cell(bounds.getMinX());
+		entry.minRow = cell(bounds.getMinY());
+		entry.maxCol = cell(bounds.getMaxX());
+		entry.maxRow = cell(bounds.getMaxY());
+		for (int col = entry.minCol; col <= entry.maxCol; col++){
+			for (int row = entry.minRow; row <= entry.maxRow; row++){
+				this.cells.computeIfAbsent(key(col, row), k -> new ArrayList<>()).add(entry);
+			}
+		}
+	}
+
+	public void remove(T item){
+		Entry<T> entry = this.entries.remove(item);
+		if (entry != null){
+			removeCells(entry);
+			this.listener.accept(entry.bounds);
+		}
+	}
+
+	public void clear(){
+		this.cells.clear();
+		this.entries.clear();
+		this.listener.accept(null);
+	}
+
+	/**
+	 * @param listener called with the areas where items are added, updated or removed, null means everywhere
+	 */
+	public void setListener(Consumer<Rectangle2D> listener){
+		this.listener = listener;
+	}
+
+	public int size(){
+		return this.entries.size();
+	}
+
+	/**
+	 * @return the items whose bounds contain the point
+	 */
+	public List<T> query(double x, double y){
+		List<Entry<T>> cell = this.cells.get(key(cell(x), cell(y)));
+		if (cell == null) return Collections.emptyList();
+		List<Entry<T>> found = new ArrayList<>();
+		for (Entry<T> entry : cell){
+			if (entry.bounds.contains(x, y)) found.add(entry);
+		}
+		return sort(found);
+	}
+
+	/**
+	 * @return the items whose bounds intersect the area
+	 */
+	public List<T> query(Rectangle2D area){
+		int minCol = cell(area.getMinX());
+		int minRow = cell(area.getMinY());
+		int maxCol = cell(area.getMaxX());
+		int maxRow = cell(area.getMaxY());
+		List<Entry<T>> found = new ArrayList<>();
+		int mark = ++this.queryMark;
+		if ((long)(maxCol-minCol+1)*(maxRow-minRow+1) > this.cells.size()){
+			// The area is larger than the board, looking at every cell is cheaper
+			for (Map.Entry<Long, List<Entry<T>>> cell : this.cells.entrySet()){
+				int col = (int)(cell.getKey() >> 32);
+				int row = (int)(long)cell.getKey();
+				if (col >= minCol && col <= maxCol && row >= minRow && row <= maxRow){
+					collect(cell.getValue(), area, mark, found);
+				}
+			}
+		} else {
+			for (int col = minCol; col <= maxCol; col++){
+				for (int row = minRow; row <= maxRow; row++){
+					List<Entry<T>> cell = this.cells.get(key(col, row));
+					if (cell != null) collect(cell, area, mark, found);
+				}
+			}
+		}
+		return sort(found);
+	}
+
+	private static <T> void collect(List<Entry<T>> cell, Rectangle2D area, int mark, List<Entry<T>> output){
+		for (Entry<T> entry : cell){
+			if (entry.mark != mark && entry.bounds.intersects(area)){
+				entry.mark = mark;
+				output.add(entry);
+			}
+		}
+	}
+
+	private static <T> List<T> sort(List<Entry<T>> found){
+		found.sort((a, b) -> Long.compare(a.order, b.order));
+		List<T> output = new ArrayList<>(found.size());
+		for (Entry<T> entry : found){
+			output.add(entry.item);
+		}
+		return output;
+	}
+
+	private void removeCells(Entry<T> entry){
+		for (int col = entry.minCol; col <= entry.maxCol; col++){
+			for (int row = entry.minRow; row <= entry.maxRow; row++){
+				Long key = key(col, row);
+				List<Entry<T>> cell = this.cells.get(key);
+				if (cell != null){
+					cell.remove(entry);
+					if (cell.isEmpty()) this.cells.remove(key);
+				}
+			}
+		}
+	}
+
+	private static int cell(double value){
+		return (int)Math.floor(value/CELL_SIZE);
+	}
+
+	private static long key(int col, int row){
+		return ((long)col << 32) | (row & 0xffffffffL);
+	}
+}
@@ -4,20 +4,33 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
 
+import com.orangomango.logicsim.Util;
+import com.orangomango.logicsim.engine.SimulationMetrics;
+
 public class Switch extends Gate{
 	private boolean on;
 	private Image image;
 
 	public Switch(GraphicsContext gc, Rectangle2D rect){
 		super(gc, "SWITCH", rect, null);
-		this.image = new Image(getClass().getResourceAsStream("/switch.png"));
-		this.onClick = () -> setOn(!this.on);
+		this.image = Util.getImage("/switch.png");
+		this.onClick = () -> {
+			SimulationMetrics.getInstance().inputChanged();
+			setOn(!this.on);
+		};
 		this.pins.add(new Pin(this, new Rectangle2D(rect.getMaxX()-7, rect.getMinY()+7, 15, 15), false));
 		this.label = "Switch";
 	}
 
+	public boolean isOn(){
+		return this.on;
+	}
+
 	public void setOn(boolean v){
-		this.on = v;
+		if (this.on != v){
+			this.on = v;
+			schedule();
+		}
 	}
 
 	@Override
@@ -30,4 +43,9 @@ public class Switch extends Gate{
 	protected void renderGate(GraphicsContext gc){
 		gc.drawImage(this.image, 1+(this.on ? 52 : 0), 1, 50, 50, this.rect.getMinX(), this.rect.getMinY(), this.rect.getWidth(), this.rect.getHeight());
 	}
+
+	@Override
+	protected boolean isBodyDynamic(){
+		return true;
+	}
 }
\ No newline at end of file
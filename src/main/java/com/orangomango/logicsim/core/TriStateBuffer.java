@@ -19,8 +19,8 @@ public class TriStateBuffer extends Gate{
 	@Override
 	public void update(){
 		super.update();
+		this.pins.get(2).setConnected(this.pins.get(0).isOn());
 		this.pins.get(2).setSignal(this.pins.get(1).isOn(), isPowered());
-		this.pins.get(2).setConnected(this.pins.get(0).isOn(), isPowered());
 	}
 
 	@Override
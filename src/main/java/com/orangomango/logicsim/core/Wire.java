@@ -10,15 +10,24 @@ import java.util.*;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
-import com.orangomango.logicsim.Util;
-
 public class Wire{
 	private GraphicsContext gc;
 	private Pin pin1, pin2;
 	private List<WirePoint> points = new ArrayList<>();
+	private SpatialIndex<Wire> index;
+	private volatile Geometry geometry; // Computed by the UI thread, read by the simulator thread to repaint the wire
+
+	/**
+	 * Path of the wire from pin1 to pin2
+	 */
+	private static class Geometry{
+		private double[] xPoints, yPoints;
+		private Rectangle2D bounds;
+	}
 
 	public static class WirePoint{
 		private double x, y;
+		private Wire owner;
 
 		public WirePoint(double x, double y){
 			this.x = x;
@@ -35,10 +44,12 @@ public class Wire{
 
 		public void setX(double x){
 			this.x = x;
+			if (this.owner != null) this.owner.geometryChanged();
 		}
 
 		public void setY(double y){
 			this.y = y;
+			if (this.owner != null) this.owner.geometryChanged();
 		}
 
 		public boolean contains(double x, double y){
@@ -60,10 +71,15 @@ public class Wire{
 		this.pin1 = p1;
 		this.pin2 = p2;
 		for (Point2D p : list){
-			this.points.add(new WirePoint(p.getX(), p.getY()));
+			WirePoint wp = new WirePoint(p.getX(), p.getY());
+			wp.owner = this;
+			this.points.add(wp);
 		}
 		this.pin1.attach(this.pin2);
 		this.pin2.attach(this.pin1);
+		this.pin1.addWire(this);
+		this.pin2.addWire(this);
+		this.geometry = computeGeometry();
 	}
 
 	public Pin getPin1(){
@@ -79,14 +95,62 @@ public class Wire{
 	}
 
 	public void destroy(){
-		this.pin1.getAttachedPins().remove(this.pin2);
-		if (this.pin1.getAttachedPins().size() == 0){
-			this.pin1.setSignal(false, Util.isPowerOn());
+		// Every pin still attached to the two ends has to be evaluated again
+		for (Pin p : this.pin1.getAttachedPins()) p.notifyOwner();
+		for (Pin p : this.pin2.getAttachedPins()) p.notifyOwner();
+		this.pin1.detach(this.pin2);
+		this.pin2.detach(this.pin1);
+		this.pin1.removeWire(this);
+		this.pin2.removeWire(this);
+	}
+
+	/**
+	 * Keep the wire in the index of its board while it changes, null to remove it
+	 */
+	public void setIndex(SpatialIndex<Wire> index){
+		if (this.index != null) this.index.remove(this);
+		this.index = index;
+		if (this.index != null) this.index.put(this, getBounds());
+	}
+
+	/**
+	 * A pin or a point of the wire moved
+	 */
+	void geometryChanged(){
+		this.geometry = computeGeometry();
+		if (this.index != null) this.index.put(this, getBounds());
+	}
+
+	private Geometry computeGeometry(){
+		Geometry geometry = new Geometry();
+		int size = this.points.size()+2;
+		geometry.xPoints = new double[size];
+		geometry.yPoints = new double[size];
+		geometry.xPoints[0] = this.pin1.getX();
+		geometry.yPoints[0] = this.pin1.getY();
+		for (int i = 0; i < this.points.size(); i++){
+			geometry.xPoints[i+1] = this.points.get(i).getX();
+			geometry.yPoints[i+1] = this.points.get(i).getY();
 		}
-		this.pin2.getAttachedPins().remove(this.pin1);
-		if (this.pin2.getAttachedPins().size() == 0){
-			this.pin2.setSignal(false, Util.isPowerOn());
+		geometry.xPoints[size-1] = this.pin2.getX();
+		geometry.yPoints[size-1] = this.pin2.getY();
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++){
+			minX = Math.min(minX, geometry.xPoints[i]);
+			minY = Math.min(minY, geometry.yPoints[i]);
+			maxX = Math.max(maxX, geometry.xPoints[i]);
+			maxY = Math.max(maxY, geometry.yPoints[i]);
 		}
+		geometry.bounds = new Rectangle2D(minX-3, minY-3, maxX-minX+6, maxY-minY+6);
+		return geometry;
+	}
+
+	/**
+	 * @return the area covered by the wire
+	 */
+	public Rectangle2D getBounds(){
+		return this.geometry.bounds;
 	}
 
 	public JSONObject getJSON(){
@@ -104,25 +168,27 @@ public class Wire{
 		return json;
 	}
 
-	private static List<Point2D> convertPoints(List<WirePoint> points){
-		List<Point2D> output = new ArrayList<>();
-		for (WirePoint wp : points){
-			output.add(new Point2D(wp.getX(), wp.getY()));
-		}
-		return output;
-	}
-
 	public void render(){
 		render(this.gc);
 	}
 
-	public void render(GraphicsContext gc){
-		gc.setStroke((this.pin1.isOn() && !this.pin1.isInput()) || (this.pin2.isOn() && !this.pin2.isInput()) ? Color.GREEN : Color.BLACK);
+	private Color getColor(){
+		return (this.pin1.isActive() && !this.pin1.isInput()) || (this.pin2.isActive() && !this.pin2.isInput()) ? Color.GREEN : Color.BLACK;
+	}
+
+	/**
+	 * Draw the wire as a straight line between its pins, used when the board is zoomed out
+	 */
+	public void renderSimple(GraphicsContext gc){
+		gc.setStroke(getColor());
 		gc.setLineWidth(3);
+		gc.strokeLine(this.pin1.getX(), this.pin1.getY(), this.pin2.getX(), this.pin2.getY());
+	}
 
-		List<Point2D[]> renderingPoints = Util.getPointsList(new Point2D(this.pin1.getX(), this.pin1.getY()), new Point2D(this.pin2.getX(), this.pin2.getY()), convertPoints(this.points));
-		for (Point2D[] line : renderingPoints){
-			gc.strokeLine(line[0].getX(), line[0].getY(), line[1].getX(), line[1].getY());
-		}
+	public void render(GraphicsContext gc){
+		gc.setStroke(getColor());
+		gc.setLineWidth(3);
+		Geometry geometry = this.geometry;
+		gc.strokePolyline(geometry.xPoints, geometry.yPoints, geometry.xPoints.length);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates a Netlist for 64 independent input vectors at once.
+ * Every net holds a long where each bit is the value of the net in one lane,
+ * so each cell is evaluated with a few bitwise operations for all the lanes.
+ */
+public class BitParallelEvaluator{
+	public static final int LANES = 64;
+
+	private static final long[] PATTERNS = {
+		0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+		0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+	};
+
+	final Netlist netlist;
+	final int[] order;
+	final long[] values, floating;
+	final long[] driverOn, driverConnected;
+	final long[] busContention, busValues;
+
+	public BitParallelEvaluator(Netlist netlist){
+		this.netlist = netlist;
+		this.order = netlist.getTopologicalOrder();
+		this.values = new long[netlist.netCount];
+		this.floating = new long[netlist.netCount];
+		this.driverOn = new long[netlist.driverCount];
+		this.driverConnected = new long[netlist.driverCount];
+		this.busContention = new long[netlist.cellCount];
+		this.busValues = new long[netlist.cellCount];
+		reset();
+	}
+
+	public void reset(){
+		Arrays.fill(this.values, 0);
+		Arrays.fill(this.floating, 0);
+		Arrays.fill(this.driverOn, 0);
+		Arrays.fill(this.driverConnected, -1L);
+		Arrays.fill(this.busContention, 0);
+		Arrays.fill(this.busValues, 0);
+	}
+
+	/**
+	 * Put the current state of the netlist in every lane
+	 */
+	public void loadState(){
+		Netlist n = this.netlist;
+		for (int net = 0; net < n.netCount; net++){
+			this.values[net] = n.isOn(net) ? -1L : 0;
+			this.floating[net] = n.isFloating(net) ? -1L : 0;
+		}
+		for (int d = 0; d < n.driverCount; d++){
+			this.driverOn[d] = n.isDriverOn(d) ? -1L : 0;
+			this.driverConnected[d] = n.isDriverConnected(d) ? -1L : 0;
+		}
+		for (int c = 0; c < n.cellCount; c++){
+			this.busContention[c] = n.hasContention(c) ? -1L : 0;
+			this.busValues[c] = n.getBusValue(c) ? -1L : 0;
+		}
+	}
+
+	/**
+	 * Set the value of an external input driver, one bit per lane
+	 */
+	public void setInput(int driver, long lanes){
+		if (this.netlist.driverCell[driver] >= 0){
+			throw new IllegalArgumentException("Driver "+driver+" belongs to a cell");
+		}
+		this.driverOn[driver] = lanes;
+		resolve(this.netlist.driverNet[driver]);
+	}
+
+	public long get(int net){
+		return this.values[net];
+	}
+
+	public long getFloating(int net){
+		return this.floating[net];
+	}
+
+	public long getDriverOn(int driver){
+		return this.driverOn[driver] & this.driverConnected[driver];
+	}
+
+	public long getDriverConnected(int driver){
+		return this.driverConnected[driver];
+	}
+
+	/**
+	 * @return the lanes where multiple pins put different values on the bus (BUS cells only)
+	 */
+	public long getContention(int cell){
+		return this.busContention[cell];
+	}
+
+	public long getBusValue(int cell){
+		return this.busValues[cell];
+	}
+
+	/**
+	 * @return the lanes whose value changed
+	 */
+	long resolve(int net){
+		long value = 0, connected = 0;
+		for (int i = this.netlist.netDriverStart[net]; i < this.netlist.netDriverStart[net+1]; i++){
+			int d = this.netlist.netDrivers[i];
+			value |= this.driverOn[d] & this.driverConnected[d];
+			connected |= this.driverConnected[d];
+		}
+		long fl = this.netlist.netDriverCount[net] == 0 ? 0 : ~connected;
+		long diff = (value ^ this.values[net]) | (fl ^ this.floating[net]);
+		this.values[net] = value;
+		this.floating[net] = fl;
+		return diff;
+	}
+
+	private void drive(int driver, long on, long connected){
+		this.driverOn[driver] = on;
+		this.driverConnected[driver] = connected;
+	}
+
+	/**
+	 * Compute the drivers of the cell without updating the nets
+	 */
+	void computeCell(int cell){
+		Netlist n = this.netlist;
+		int in = n.inputStart[cell];
+		int out = n.outputStart[cell];
+		switch (n.opcodes[cell]){
+			case Netlist.AND:
+				drive(n.outputs[out], this.values[n.inputs[in]] & this.values[n.inputs[in+1]], -1L);
+				break;
+			case Netlist.NOT:
+				drive(n.outputs[out], ~this.values[n.inputs[in]], -1L);
+				break;
+			case Netlist.BUF:
+				drive(n.outputs[out], this.values[n.inputs[in]], ~this.floating[n.inputs[in]]);
+				break;
+			case Netlist.TRISTATE:
+				long enabled = this.values[n.inputs[in]];
+				drive(n.outputs[out], enabled & this.values[n.inputs[in+1]], enabled);
+				break;
+			case Netlist.BUS:
+				long puttingOn = 0, puttingOff = 0;
+				for (int i = in; i < n.inputStart[cell+1]; i++){
+					int net = n.inputs[i];
+					if (n.netDriverCount[net] == 0) continue;
+					long driven = ~this.floating[net];
+					puttingOn |= driven & this.values[net];
+					puttingOff |= driven & ~this.values[net];
+				}
+				this.busContention[cell] = puttingOn & puttingOff;
+				long value = puttingOn & ~puttingOff; // Lanes with contention are off
+				this.busValues[cell] = value;
+				for (int i = out; i < n.outputStart[cell+1]; i++){
+					drive(n.outputs[i], value, -1L);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * @return the lanes whose value changed on the nets driven by the cell
+	 */
+	long resolveOutputs(int cell){
+		long diff = 0;
+		for (int i = this.netlist.outputStart[cell]; i < this.netlist.outputStart[cell+1]; i++){
+			diff |= resolve(this.netlist.driverNet[this.netlist.outputs[i]]);
+		}
+		return diff;
+	}
+
+	/**
+	 * Sweep the cells in topological order until no lane changes anymore
+	 * @param maxSweeps maximum number of sweeps, only feedback loops need more than one
+	 * @return the lanes that are still changing, 0 if every lane is stable
+	 */
+	public long evaluate(int maxSweeps){
+		long changed = -1L;
+		for (int s = 0; s < maxSweeps && changed != 0; s++){
+			changed = 0;
+			for (int cell : this.order){
+				computeCell(cell);
+				changed |= resolveOutputs(cell);
+			}
+		}
+		return changed;
+	}
+
+	public long evaluate(){
+		return evaluate(64);
+	}
+
+	/**
+	 * Evaluate every combination of the given inputs, 64 combinations per pass.
+	 * The first input is the least significant bit of the row number.
+	 */
+	public TruthTable truthTable(int[] inputDrivers, int[] outputNets){
+		if (inputDrivers.length > 30){
+			throw new IllegalArgumentException("Too many inputs: "+inputDrivers.length);
+		}
+		int rows = 1 << inputDrivers.length;
+		int passes = Math.max(1, rows/LANES);
+		long[][] outputs = new long[outputNets.length][passes];
+		long[] unstable = new long[passes];
+		for (int p = 0; p < passes; p++){
+			reset();
+			for (int i = 0; i < inputDrivers.length; i++){
+				long lanes = i < PATTERNS.length ? PATTERNS[i] : (((p >>> (i-PATTERNS.length)) & 1) == 0 ? 0 : -1L);
+				setInput(inputDrivers[i], lanes);
+			}
+			unstable[p] = evaluate();
+			for (int o = 0; o < outputNets.length; o++){
+				outputs[o][p] = this.values[outputNets[o]];
+			}
+		}
+		return new TruthTable(inputDrivers.length, outputs, unstable);
+	}
+}
@@ -0,0 +1,165 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.*;
+
+/**
+ * Turns the gates of a circuit, nested chips included, into the cells of a Netlist.
+ * Used by NetlistLoader for the files and by CompiledCircuit for the gates of a workspace.
+ * Pins are numbered by the caller, the pins connected together become one net when the netlist is built.
+ */
+public class CircuitFlattener{
+	private static class CellSpec{
+		private byte opcode;
+		private int[] inputPins, outputPins;
+
+		private CellSpec(byte opcode, int[] inputPins, int[] outputPins){
+			this.opcode = opcode;
+			this.inputPins = inputPins;
+			this.outputPins = outputPins;
+		}
+	}
+
+	private int[] parent = new int[256];
+	private int pinCount;
+	private List<CellSpec> cells = new ArrayList<>();
+	private List<Integer> inputs = new ArrayList<>();
+	private int[] pinNet, pinDriver;
+
+	public int addPin(){
+		if (this.pinCount == this.parent.length){
+			this.parent = Arrays.copyOf(this.parent, this.parent.length*2);
+		}
+		this.parent[this.pinCount] = this.pinCount;
+		return this.pinCount++;
+	}
+
+	public void connect(int a, int b){
+		this.parent[find(a)] = find(b);
+	}
+
+	private int find(int i){
+		while (this.parent[i] != i){
+			this.parent[i] = this.parent[this.parent[i]];
+			i = this.parent[i];
+		}
+		return i;
+	}
+
+	private int addCell(byte opcode, int[] inputPins, int[] outputPins){
+		this.cells.add(new CellSpec(opcode, inputPins, outputPins));
+		return this.cells.size()-1;
+	}
+
+	public int getCellCount(){
+		return this.cells.size();
+	}
+
+	/**
+	 * Add the cell of a logic gate
+	 * @param name the name of the gate in the files
+	 * @param pins the pins of the gate, in the order of the files
+	 * @return the cell, or -1 for the gates that only read their pins like lights and displays
+	 * @throws IllegalArgumentException if the gate is unknown
+	 */
+	public int addGate(String name, int[] pins){
+		switch (name){
+			case "AND":
+				return addCell(Netlist.AND, new int[]{pins[0], pins[1]}, new int[]{pins[2]});
+			case "3SBUFFER":
+				return addCell(Netlist.TRISTATE, new int[]{pins[0], pins[1]}, new int[]{pins[2]});
+			case "NOT":
+				return addCell(Netlist.NOT, new int[]{pins[0]}, new int[]{pins[1]});
+			case "LIGHT":
+			case "DISPLAY7":
+				return -1;
+			default:
+				throw new IllegalArgumentException("Unknown gate: "+name);
+		}
+	}
+
+	/**
+	 * Drive the pin from outside of the netlist, like a switch
+	 */
+	public void addInput(int pin){
+		this.inputs.add(pin);
+	}
+
+	/**
+	 * Connect the pins of a chip to the switches and the lights inside it with BUF cells
+	 * @param inputPins the input pins of the chip, in the order of the inner switches
+	 * @param outputPins the output pins of the chip, in the order of the inner lights
+	 * @return the amount of cells added
+	 */
+	public int addChip(int[] inputPins, int[] innerSwitches, int[] outputPins, int[] innerLights){
+		int count = 0;
+		for (int i = 0; i < Math.min(inputPins.length, innerSwitches.length); i++, count++){
+			addCell(Netlist.BUF, new int[]{inputPins[i]}, new int[]{innerSwitches[i]});
+		}
+		for (int i = 0; i < Math.min(outputPins.length, innerLights.length); i++, count++){
+			addCell(Netlist.BUF, new int[]{innerLights[i]}, new int[]{outputPins[i]});
+		}
+		return count;
+	}
+
+	/**
+	 * Connected buses share the same value, every group of buses becomes one BUS cell.
+	 * The output pins are driven by the bus, the input pins drive it only when something is attached to them.
+	 * @param pins the pins of every bus of the group
+	 * @return the cell
+	 */
+	public int addBus(int[] pins, boolean[] input, boolean[] attached){
+		List<Integer> inputPins = new ArrayList<>();
+		List<Integer> outputPins = new ArrayList<>();
+		for (int i = 0; i < pins.length; i++){
+			if (!input[i]){
+				outputPins.add(pins[i]);
+			} else if (attached[i]){
+				inputPins.add(pins[i]);
+			}
+		}
+		return addCell(Netlist.BUS, inputPins.stream().mapToInt(Integer::intValue).toArray(), outputPins.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	/**
+	 * Group the pins into nets and build the cells in the order they were added
+	 */
+	public Netlist build(){
+		NetlistBuilder builder = new NetlistBuilder();
+		int[] rootNet = new int[this.pinCount];
+		Arrays.fill(rootNet, -1);
+		this.pinNet = new int[this.pinCount];
+		for (int i = 0; i < this.pinCount; i++){
+			int root = find(i);
+			if (rootNet[root] < 0){
+				rootNet[root] = builder.addNet();
+			}
+			this.pinNet[i] = rootNet[root];
+		}
+		this.pinDriver = new int[this.pinCount];
+		Arrays.fill(this.pinDriver, -1);
+		for (int pin : this.inputs){
+			this.pinDriver[pin] = builder.addInput(this.pinNet[pin]);
+		}
+		for (CellSpec spec : this.cells){
+			int cell = builder.addCell(spec.opcode, Arrays.stream(spec.inputPins).map(p -> this.pinNet[p]).toArray(), Arrays.stream(spec.outputPins).map(p -> this.pinNet[p]).toArray());
+			for (int i = 0; i < spec.outputPins.length; i++){
+				this.pinDriver[spec.outputPins[i]] = builder.getDriver(cell, i);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return the net of the pin, after build()
+	 */
+	public int getNet(int pin){
+		return this.pinNet[pin];
+	}
+
+	/**
+	 * @return the driver writing to the pin after build(), or -1 if the pin only reads its net
+	 */
+	public int getDriver(int pin){
+		return this.pinDriver[pin];
+	}
+}
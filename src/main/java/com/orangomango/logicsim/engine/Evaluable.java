@@ -0,0 +1,25 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Anything the simulator can re-evaluate after one of its inputs changed.
+ */
+public interface Evaluable{
+	public void update();
+
+	/**
+	 * @return the components that have to be re-evaluated when this one changes, used to find the loops that do not settle
+	 */
+	public default Collection<? extends Evaluable> getFanout(){
+		return Collections.emptyList();
+	}
+
+	/**
+	 * The component was stopped because it is part of a loop that does not settle,
+	 * the changes of its outputs that are still on their way must be dropped
+	 */
+	public default void halt(){
+	}
+}
@@ -0,0 +1,483 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.Arrays;
+
+/**
+ * Flat, compiled representation of a circuit.
+ * Every group of electrically connected pins is a net, every gate is a cell with an
+ * opcode reading some nets and writing some drivers, and every driver belongs to a net.
+ * All the tables are primitive arrays and the evaluation loop does not allocate.
+ * The propagation has no delay: evaluate() runs until nothing changes anymore.
+ */
+public final class Netlist{
+	public static final byte AND = 0;
+	public static final byte NOT = 1;
+	public static final byte BUF = 2;
+	public static final byte TRISTATE = 3;
+	public static final byte BUS = 4;
+	private static final int OSCILLATION_THRESHOLD = 8; // Changes of a net during one evaluate() call
+
+	// Structure
+	final int netCount, cellCount, driverCount;
+	final byte[] opcodes;
+	final int[] inputStart, inputs; // cell -> nets it reads
+	final int[] outputStart, outputs; // cell -> drivers it writes
+	final int[] driverNet; // driver -> net
+	final int[] driverCell; // driver -> cell, -1 for external inputs
+	final int[] fanoutStart, fanout; // net -> cells reading it
+	final int[] netDriverStart, netDrivers; // net -> drivers writing it
+	final int[] netDriverCount;
+
+	// State
+	private final long[] values; // Net values
+	private final long[] floating; // Nets whose drivers are all disconnected
+	private final long[] driverOn, driverFloating;
+	private final int[] onCount, connectedCount;
+	private final long[] contention, busValues; // BUS cells only
+	private final int[] queue;
+	private final long[] queued;
+	private int head, size;
+	private final int[] changed;
+	private final long[] changedFlags;
+	private final int[] toggles, toggled; // Changes of every net during the last evaluate() call
+	private int toggledCount;
+	private long evaluationCount;
+	private int changedCount;
+
+	Netlist(int netCount, byte[] opcodes, int[] inputStart, int[] inputs, int[] outputStart, int[] outputs, int[] driverNet, int[] driverCell){
+		this.netCount = netCount;
+		this.cellCount = opcodes.length;
+		this.driverCount = driverNet.length;
+		this.opcodes = opcodes;
+		this.inputStart = inputStart;
+		this.inputs = inputs;
+		this.outputStart = outputStart;
+		this.outputs = outputs;
+		this.driverNet = driverNet;
+		this.driverCell = driverCell;
+
+		// Build the fanout table
+		this.fanoutStart = new int[netCount+1];
+		for (int i = 0; i < inputs.length; i++){
+			this.fanoutStart[inputs[i]+1]++;
+		}
+		for (int i = 0; i < netCount; i++){
+			this.fanoutStart[i+1] += this.fanoutStart[i];
+		}
+		this.fanout = new int[inputs.length];
+		int[] fill = new int[netCount];
+		for (int c = 0; c < this.cellCount; c++){
+			for (int i = inputStart[c]; i < inputStart[c+1]; i++){
+				int net = inputs[i];
+				this.fanout[this.fanoutStart[net]+fill[net]++] = c;
+			}
+		}
+		this.netDriverCount = new int[netCount];
+		for (int d = 0; d < this.driverCount; d++){
+			this.netDriverCount[driverNet[d]]++;
+		}
+		this.netDriverStart = new int[netCount+1];
+		for (int i = 0; i < netCount; i++){
+			this.netDriverStart[i+1] = this.netDriverStart[i]+this.netDriverCount[i];
+		}
+		this.netDrivers = new int[this.driverCount];
+		Arrays.fill(fill, 0);
+		for (int d = 0; d < this.driverCount; d++){
+			int net = driverNet[d];
+			this.netDrivers[this.netDriverStart[net]+fill[net]++] = d;
+		}
+
+		this.values = new long[words(netCount)];
+		this.floating = new long[words(netCount)];
+		this.driverOn = new long[words(this.driverCount)];
+		this.driverFloating = new long[words(this.driverCount)];
+		this.onCount = new int[netCount];
+		this.connectedCount = new int[netCount];
+		this.contention = new long[words(this.cellCount)];
+		this.busValues = new long[words(this.cellCount)];
+		this.queue = new int[Math.max(1, this.cellCount)];
+		this.queued = new long[words(this.cellCount)];
+		this.changed = new int[Math.max(1, netCount)];
+		this.changedFlags = new long[words(netCount)];
+		this.toggles = new int[netCount];
+		this.toggled = new int[Math.max(1, netCount)];
+		reset();
+	}
+
+	static int words(int bits){
+		return (bits+63) >>> 6;
+	}
+
+	static boolean get(long[] set, int i){
+		return (set[i >>> 6] & (1L << i)) != 0;
+	}
+
+	static void set(long[] set, int i, boolean v){
+		if (v){
+			set[i >>> 6] |= 1L << i;
+		} else {
+			set[i >>> 6] &= ~(1L << i);
+		}
+	}
+
+	/**
+	 * Order the cells so that every cell comes after the cells driving its inputs.
+	 * Cells that are part of a feedback loop are put at the end, in index order.
+	 */
+	public int[] getTopologicalOrder(){
+		int[] pending = new int[this.cellCount];
+		for (int c = 0; c < this.cellCount; c++){
+			for (int i = this.inputStart[c]; i < this.inputStart[c+1]; i++){
+				int net = this.inputs[i];
+				for (int j = this.netDriverStart[net]; j < this.netDriverStart[net+1]; j++){
+					if (this.driverCell[this.netDrivers[j]] >= 0) pending[c]++;
+				}
+			}
+		}
+		int[] order = new int[this.cellCount];
+		int count = 0;
+		for (int c = 0; c < this.cellCount; c++){
+			if (pending[c] == 0) order[count++] = c;
+		}
+		for (int k = 0; k < count; k++){
+			int c = order[k];
+			for (int i = this.outputStart[c]; i < this.outputStart[c+1]; i++){
+				int net = this.driverNet[this.outputs[i]];
+				for (int j = this.fanoutStart[net]; j < this.fanoutStart[net+1]; j++){
+					if (--pending[this.fanout[j]] == 0){
+						order[count++] = this.fanout[j];
+					}
+				}
+			}
+		}
+		if (count < this.cellCount){
+			for (int c = 0; c < this.cellCount; c++){
+				if (pending[c] > 0) order[count++] = c;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Put every driver low and connected and queue every cell
+	 */
+	public void reset(){
+		Arrays.fill(this.values, 0);
+		Arrays.fill(this.floating, 0);
+		Arrays.fill(this.driverOn, 0);
+		Arrays.fill(this.driverFloating, 0);
+		Arrays.fill(this.onCount, 0);
+		Arrays.fill(this.contention, 0);
+		Arrays.fill(this.busValues, 0);
+		System.arraycopy(this.netDriverCount, 0, this.connectedCount, 0, this.netCount);
+		Arrays.fill(this.queued, 0);
+		Arrays.fill(this.toggles, 0);
+		this.toggledCount = 0;
+		this.head = 0;
+		this.size = 0;
+		for (int c = 0; c < this.cellCount; c++){
+			enqueue(c);
+		}
+	}
+
+	public int getNetCount(){
+		return this.netCount;
+	}
+
+	public int getCellCount(){
+		return this.cellCount;
+	}
+
+	public int getDriverCount(){
+		return this.driverCount;
+	}
+
+	public byte getOpcode(int cell){
+		return this.opcodes[cell];
+	}
+
+	public boolean isOn(int net){
+		return get(this.values, net);
+	}
+
+	public boolean isFloating(int net){
+		return get(this.floating, net);
+	}
+
+	public boolean isDriverOn(int driver){
+		return get(this.driverOn, driver);
+	}
+
+	public boolean isDriverConnected(int driver){
+		return !get(this.driverFloating, driver);
+	}
+
+	public boolean hasContention(int cell){
+		return get(this.contention, cell);
+	}
+
+	public boolean getBusValue(int cell){
+		return get(this.busValues, cell);
+	}
+
+	public boolean isStable(){
+		return this.size == 0;
+	}
+
+	/**
+	 * Set the value of an external input driver
+	 */
+	public void setInput(int driver, boolean on){
+		if (this.driverCell[driver] >= 0){
+			throw new IllegalArgumentException("Driver "+driver+" belongs to a cell");
+		}
+		drive(driver, on, true);
+	}
+
+	private void enqueue(int cell){
+		if (!get(this.queued, cell)){
+			set(this.queued, cell, true);
+			int tail = this.head+this.size;
+			if (tail >= this.queue.length) tail -= this.queue.length;
+			this.queue[tail] = cell;
+			this.size++;
+		}
+	}
+
+	private void drive(int driver, boolean on, boolean connected){
+		if (!connected) on = false; // A disconnected pin never puts a signal on the net
+		boolean wasOn = get(this.driverOn, driver);
+		boolean wasConnected = !get(this.driverFloating, driver);
+		if (wasOn == on && wasConnected == connected) return;
+		int net = this.driverNet[driver];
+		if (wasOn != on){
+			set(this.driverOn, driver, on);
+			this.onCount[net] += on ? 1 : -1;
+		}
+		if (wasConnected != connected){
+			set(this.driverFloating, driver, !connected);
+			this.connectedCount[net] += connected ? 1 : -1;
+		}
+		boolean value = this.onCount[net] > 0;
+		boolean fl = this.connectedCount[net] == 0;
+		if (value != get(this.values, net) || fl != get(this.floating, net)){
+			set(this.values, net, value);
+			set(this.floating, net, fl);
+			if (this.toggles[net]++ == 0){
+				this.toggled[this.toggledCount++] = net;
+			}
+			if (!get(this.changedFlags, net)){
+				set(this.changedFlags, net, true);
+				this.changed[this.changedCount++] = net;
+			}
+			for (int i = this.fanoutStart[net]; i < this.fanoutStart[net+1]; i++){
+				enqueue(this.fanout[i]);
+			}
+		}
+	}
+
+	private void evaluateCell(int cell){
+		int in = this.inputStart[cell];
+		int out = this.outputStart[cell];
+		switch (this.opcodes[cell]){
+			case AND:
+				drive(this.outputs[out], get(this.values, this.inputs[in]) && get(this.values, this.inputs[in+1]), true);
+				break;
+			case NOT:
+				drive(this.outputs[out], !get(this.values, this.inputs[in]), true);
+				break;
+			case BUF:
+				drive(this.outputs[out], get(this.values, this.inputs[in]), !get(this.floating, this.inputs[in]));
+				break;
+			case TRISTATE:
+				boolean enabled = get(this.values, this.inputs[in]);
+				drive(this.outputs[out], enabled && get(this.values, this.inputs[in+1]), enabled);
+				break;
+			case BUS:
+				int puttingOn = 0, puttingOff = 0;
+				for (int i = in; i < this.inputStart[cell+1]; i++){
+					int net = this.inputs[i];
+					if (this.netDriverCount[net] == 0 || get(this.floating, net)) continue;
+					if (get(this.values, net)){
+						puttingOn++;
+					} else {
+						puttingOff++;
+					}
+				}
+				boolean unstable = puttingOn > 0 && puttingOff > 0;
+				set(this.contention, cell, unstable);
+				boolean value = puttingOn > 0 && !unstable;
+				set(this.busValues, cell, value);
+				for (int i = out; i < this.outputStart[cell+1]; i++){
+					drive(this.outputs[i], value, true);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Evaluate the queued cells until the circuit is stable
+	 * @param maxEvaluations maximum number of cell evaluations
+	 * @return true if the circuit is stable, false if the budget was not enough
+	 */
+	public boolean evaluate(int maxEvaluations){
+		for (int i = 0; i < this.toggledCount; i++){
+			this.toggles[this.toggled[i]] = 0;
+		}
+		this.toggledCount = 0;
+		int evaluations = 0;
+		while (this.size > 0 && evaluations < maxEvaluations){
+			int cell = this.queue[this.head];
+			this.head++;
+			if (this.head == this.queue.length) this.head = 0;
+			this.size--;
+			set(this.queued, cell, false);
+			evaluateCell(cell);
+			evaluations++;
+		}
+		this.evaluationCount += evaluations;
+		return this.size == 0;
+	}
+
+	public boolean evaluate(){
+		return evaluate(64*this.cellCount+1024);
+	}
+
+	/**
+	 * Take the state of one lane of a settled evaluator of this netlist, the queued cells are dropped.
+	 * The nets whose value is different are marked as changed.
+	 */
+	public void loadState(BitParallelEvaluator evaluator, int lane){
+		halt();
+		Arrays.fill(this.onCount, 0);
+		Arrays.fill(this.connectedCount, 0);
+		for (int d = 0; d < this.driverCount; d++){
+			boolean connected = ((evaluator.driverConnected[d] >>> lane) & 1) != 0;
+			boolean on = connected && ((evaluator.driverOn[d] >>> lane) & 1) != 0;
+			set(this.driverOn, d, on);
+			set(this.driverFloating, d, !connected);
+			if (on) this.onCount[this.driverNet[d]]++;
+			if (connected) this.connectedCount[this.driverNet[d]]++;
+		}
+		for (int net = 0; net < this.netCount; net++){
+			boolean value = ((evaluator.values[net] >>> lane) & 1) != 0;
+			boolean fl = ((evaluator.floating[net] >>> lane) & 1) != 0;
+			if (value != get(this.values, net) || fl != get(this.floating, net)){
+				set(this.values, net, value);
+				set(this.floating, net, fl);
+				if (!get(this.changedFlags, net)){
+					set(this.changedFlags, net, true);
+					this.changed[this.changedCount++] = net;
+				}
+			}
+		}
+		for (int c = 0; c < this.cellCount; c++){
+			set(this.contention, c, ((evaluator.busContention[c] >>> lane) & 1) != 0);
+			set(this.busValues, c, ((evaluator.busValues[c] >>> lane) & 1) != 0);
+		}
+	}
+
+	/**
+	 * Drop the queued cells, used to stop an oscillating circuit until one of its inputs changes
+	 */
+	public void halt(){
+		for (int i = 0; i < this.size; i++){
+			int k = this.head+i;
+			if (k >= this.queue.length) k -= this.queue.length;
+			set(this.queued, this.queue[k], false);
+		}
+		this.head = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Nets that kept changing during the last evaluate() call, only meaningful when it did not settle
+	 */
+	public int[] getOscillatingNets(){
+		int[] nets = new int[this.toggledCount];
+		int count = 0;
+		for (int i = 0; i < this.toggledCount; i++){
+			if (this.toggles[this.toggled[i]] >= OSCILLATION_THRESHOLD) nets[count++] = this.toggled[i];
+		}
+		Arrays.sort(nets, 0, count);
+		return Arrays.copyOf(nets, count);
+	}
+
+	/**
+	 * @return the cells forming the loops that do not settle: the cells driving the oscillating
+	 * nets, without the ones that are only driven by a loop or only drive one
+	 */
+	public int[] getOscillatingCells(){
+		long[] cells = new long[words(this.cellCount)];
+		for (int net : getOscillatingNets()){
+			for (int j = this.netDriverStart[net]; j < this.netDriverStart[net+1]; j++){
+				int cell = this.driverCell[this.netDrivers[j]];
+				if (cell >= 0) set(cells, cell, true);
+			}
+		}
+		boolean trimmed = true;
+		while (trimmed){
+			trimmed = false;
+			for (int c = 0; c < this.cellCount; c++){
+				if (get(cells, c) && (!hasNeighbour(cells, c, true) || !hasNeighbour(cells, c, false))){
+					set(cells, c, false);
+					trimmed = true;
+				}
+			}
+		}
+		int[] result = new int[this.cellCount];
+		int count = 0;
+		for (int c = 0; c < this.cellCount; c++){
+			if (get(cells, c)) result[count++] = c;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @param fanout look for a cell of the set reading the outputs of the cell, otherwise for one driving its inputs
+	 */
+	private boolean hasNeighbour(long[] cells, int cell, boolean fanout){
+		if (fanout){
+			for (int i = this.outputStart[cell]; i < this.outputStart[cell+1]; i++){
+				int net = this.driverNet[this.outputs[i]];
+				for (int j = this.fanoutStart[net]; j < this.fanoutStart[net+1]; j++){
+					if (get(cells, this.fanout[j])) return true;
+				}
+			}
+		} else {
+			for (int i = this.inputStart[cell]; i < this.inputStart[cell+1]; i++){
+				int net = this.inputs[i];
+				for (int j = this.netDriverStart[net]; j < this.netDriverStart[net+1]; j++){
+					int driver = this.driverCell[this.netDrivers[j]];
+					if (driver >= 0 && get(cells, driver)) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the total amount of cell evaluations done by this netlist
+	 */
+	public long getEvaluationCount(){
+		return this.evaluationCount;
+	}
+
+	/**
+	 * @return the amount of nets whose value changed since the last call of clearChanged()
+	 */
+	public int getChangedCount(){
+		return this.changedCount;
+	}
+
+	public int getChanged(int i){
+		return this.changed[i];
+	}
+
+	public void clearChanged(){
+		for (int i = 0; i < this.changedCount; i++){
+			set(this.changedFlags, this.changed[i], false);
+		}
+		this.changedCount = 0;
+	}
+}
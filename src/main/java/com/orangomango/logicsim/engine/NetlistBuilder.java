@@ -0,0 +1,101 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.*;
+
+/**
+ * Collects nets, cells and external inputs and then builds an immutable Netlist structure
+ */
+public class NetlistBuilder{
+	private int netCount;
+	private List<Byte> opcodes = new ArrayList<>();
+	private List<int[]> cellInputs = new ArrayList<>();
+	private List<Integer> cellFirstDriver = new ArrayList<>();
+	private List<Integer> driverNet = new ArrayList<>();
+	private List<Integer> driverCell = new ArrayList<>();
+
+	public int addNet(){
+		return this.netCount++;
+	}
+
+	public int getNetCount(){
+		return this.netCount;
+	}
+
+	/**
+	 * Add an external driver on the given net
+	 * @return the index of the driver, to be used with Netlist.setInput()
+	 */
+	public int addInput(int net){
+		checkNet(net);
+		this.driverNet.add(net);
+		this.driverCell.add(-1);
+		return this.driverNet.size()-1;
+	}
+
+	/**
+	 * Add a cell reading the input nets and driving each of the output nets
+	 * @return the index of the cell
+	 */
+	public int addCell(byte opcode, int[] inputNets, int[] outputNets){
+		int cell = this.opcodes.size();
+		for (int net : inputNets) checkNet(net);
+		this.opcodes.add(opcode);
+		this.cellInputs.add(inputNets.clone());
+		this.cellFirstDriver.add(this.driverNet.size());
+		for (int net : outputNets){
+			checkNet(net);
+			this.driverNet.add(net);
+			this.driverCell.add(cell);
+		}
+		return cell;
+	}
+
+	/**
+	 * @return the driver of the n-th output of the given cell
+	 */
+	public int getDriver(int cell, int output){
+		return this.cellFirstDriver.get(cell)+output;
+	}
+
+	private void checkNet(int net){
+		if (net < 0 || net >= this.netCount){
+			throw new IllegalArgumentException("Invalid net: "+net);
+		}
+	}
+
+	public Netlist build(){
+		int cellCount = this.opcodes.size();
+		byte[] ops = new byte[cellCount];
+		int[] inputStart = new int[cellCount+1];
+		int[] outputStart = new int[cellCount+1];
+		for (int c = 0; c < cellCount; c++){
+			ops[c] = this.opcodes.get(c);
+			inputStart[c+1] = inputStart[c]+this.cellInputs.get(c).length;
+		}
+		int[] inputs = new int[inputStart[cellCount]];
+		for (int c = 0; c < cellCount; c++){
+			System.arraycopy(this.cellInputs.get(c), 0, inputs, inputStart[c], this.cellInputs.get(c).length);
+		}
+
+		// Cell drivers are contiguous, external inputs are skipped
+		int[] dNet = new int[this.driverNet.size()];
+		int[] dCell = new int[this.driverNet.size()];
+		for (int d = 0; d < dNet.length; d++){
+			dNet[d] = this.driverNet.get(d);
+			dCell[d] = this.driverCell.get(d);
+		}
+		List<Integer> outputs = new ArrayList<>();
+		for (int c = 0; c < cellCount; c++){
+			outputStart[c] = outputs.size();
+			for (int d = this.cellFirstDriver.get(c); d < dCell.length && dCell[d] == c; d++){
+				outputs.add(d);
+			}
+		}
+		outputStart[cellCount] = outputs.size();
+		int[] outs = new int[outputs.size()];
+		for (int i = 0; i < outs.length; i++){
+			outs[i] = outputs.get(i);
+		}
+		return new Netlist(this.netCount, ops, inputStart, inputs, outputStart, outs, dNet, dCell);
+	}
+}
@@ -0,0 +1,214 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.*;
+import java.io.*;
+
+import com.orangomango.logicsim.io.CircuitData;
+import com.orangomango.logicsim.io.DependencyResolver;
+
+/**
+ * Builds a Netlist directly from a .lsim or .lsimc file without creating any gate,
+ * so circuits can be simulated without JavaFX. Chips are loaded recursively and
+ * flattened with the same CircuitFlattener as CompiledCircuit. The inputs are the top-level switches and the
+ * outputs are the top-level lights, both sorted from top to bottom like the pins of a chip.
+ */
+public class NetlistLoader{
+	private static class PinRef implements Comparable<PinRef>{
+		private int pin;
+		private double y;
+		private String label;
+
+		private PinRef(int pin, double y, String label){
+			this.pin = pin;
+			this.y = y;
+			this.label = label;
+		}
+
+		@Override
+		public int compareTo(PinRef other){
+			return Double.compare(this.y, other.y);
+		}
+	}
+
+	private Map<String, CircuitData> files = new HashMap<>();
+	private Deque<String> loading = new ArrayDeque<>();
+	private CircuitFlattener flattener = new CircuitFlattener();
+
+	private Netlist netlist;
+	private int[] inputDrivers, outputNets;
+	private String[] inputLabels, outputLabels;
+
+	public NetlistLoader(File file) throws IOException{
+		List<PinRef> switches = new ArrayList<>();
+		List<PinRef> lights = new ArrayList<>();
+		new DependencyResolver(this::read).resolve(file, read(file)); // Report every problem at once
+		loadFile(file, switches, lights);
+
+		for (PinRef sw : switches){
+			this.flattener.addInput(sw.pin);
+		}
+		this.netlist = this.flattener.build();
+		this.inputDrivers = new int[switches.size()];
+		this.inputLabels = new String[switches.size()];
+		for (int i = 0; i < switches.size(); i++){
+			this.inputDrivers[i] = this.flattener.getDriver(switches.get(i).pin);
+			this.inputLabels[i] = switches.get(i).label;
+		}
+		this.outputNets = new int[lights.size()];
+		this.outputLabels = new String[lights.size()];
+		for (int i = 0; i < lights.size(); i++){
+			this.outputNets[i] = this.flattener.getNet(lights.get(i).pin);
+			this.outputLabels[i] = lights.get(i).label;
+		}
+	}
+
+	public Netlist getNetlist(){
+		return this.netlist;
+	}
+
+	public int[] getInputDrivers(){
+		return this.inputDrivers;
+	}
+
+	public String[] getInputLabels(){
+		return this.inputLabels;
+	}
+
+	public int[] getOutputNets(){
+		return this.outputNets;
+	}
+
+	public String[] getOutputLabels(){
+		return this.outputLabels;
+	}
+
+	private CircuitData read(File file) throws IOException{
+		String key = file.getCanonicalPath();
+		CircuitData data = this.files.get(key);
+		if (data == null){
+			data = CircuitData.read(file);
+			this.files.put(key, data);
+		}
+		return data;
+	}
+
+	/**
+	 * Add the pins and the cells of a file
+	 * @param switches filled with the output pins of the switches of the file
+	 * @param lights filled with the input pins of the lights of the file
+	 */
+	private void loadFile(File file, List<PinRef> switches, List<PinRef> lights) throws IOException{
+		String key = file.getCanonicalPath();
+		if (this.loading.contains(key)){
+			throw new IOException("Circular dependency: "+file.getName());
+		}
+		this.loading.push(key);
+		CircuitData data = read(file);
+		Map<Integer, Integer> pins = new HashMap<>();
+
+		// Pins
+		for (int i = 0; i < data.getPinCount(); i++){
+			pins.computeIfAbsent(data.getPinId(i), k -> this.flattener.addPin());
+		}
+		for (int i = 0; i < data.getPinCount(); i++){
+			for (int j = data.getAttachedStart(i); j < data.getAttachedEnd(i); j++){
+				Integer other = pins.get(data.getAttached(j));
+				if (other != null) this.flattener.connect(pins.get(data.getPinId(i)), other);
+			}
+		}
+		for (int i = 0; i < data.getWireCount(); i++){
+			Integer p1 = pins.get(data.getWirePin1(i));
+			Integer p2 = pins.get(data.getWirePin2(i));
+			if (p1 != null && p2 != null) this.flattener.connect(p1, p2);
+		}
+
+		// Cells
+		Map<Integer, Integer> buses = new LinkedHashMap<>();
+		for (int g = 0; g < data.getGateCount(); g++){
+			int start = data.getPinStart(g);
+			int[] p = new int[data.getPinEnd(g)-start];
+			for (int i = 0; i < p.length; i++){
+				p[i] = pins.get(data.getPinId(start+i));
+			}
+			double y = data.getGateY(g)+data.getGateHeight(g)/2;
+			switch (data.getGateName(g)){
+				case "SWITCH":
+					switches.add(new PinRef(p[0], y, data.getLabel(g)));
+					break;
+				case "LIGHT":
+					lights.add(new PinRef(p[0], y, data.getLabel(g)));
+					break;
+				case "BUS":
+					buses.putIfAbsent(data.getBusId(g), g);
+					break;
+				case "CHIP":
+					File chipFile = new File(file.getParent(), data.getFileName(g));
+					if (!chipFile.exists()){
+						throw new FileNotFoundException("The following dependency is missing: "+data.getFileName(g));
+					}
+					List<PinRef> innerSwitches = new ArrayList<>();
+					List<PinRef> innerLights = new ArrayList<>();
+					loadFile(chipFile, innerSwitches, innerLights);
+					List<Integer> inputPins = new ArrayList<>();
+					List<Integer> outputPins = new ArrayList<>();
+					for (int i = 0; i < p.length; i++){
+						if (data.isPinInput(start+i)){
+							inputPins.add(p[i]);
+						} else {
+							outputPins.add(p[i]);
+						}
+					}
+					this.flattener.addChip(toArray(inputPins), innerSwitches.stream().mapToInt(r -> r.pin).toArray(), toArray(outputPins), innerLights.stream().mapToInt(r -> r.pin).toArray());
+					break;
+				default:
+					try {
+						this.flattener.addGate(data.getGateName(g), p);
+					} catch (IllegalArgumentException ex){
+						throw new IOException(file.getName()+": "+ex.getMessage(), ex);
+					}
+					break;
+			}
+		}
+		switches.sort(null);
+		lights.sort(null);
+		loadBuses(data, buses, pins);
+		this.loading.pop();
+	}
+
+	/**
+	 * Connected buses share the same value, every group becomes one BUS cell
+	 * @param buses bus id -> gate
+	 */
+	private void loadBuses(CircuitData data, Map<Integer, Integer> buses, Map<Integer, Integer> pins){
+		Set<Integer> visited = new HashSet<>();
+		for (int id : buses.keySet()){
+			if (!visited.add(id)) continue;
+			List<Integer> group = new ArrayList<>(); // Indices in the pins of the file
+			Deque<Integer> stack = new ArrayDeque<>();
+			stack.push(id);
+			while (!stack.isEmpty()){
+				int bus = buses.get(stack.pop());
+				for (int i = data.getPinStart(bus); i < data.getPinEnd(bus); i++){
+					group.add(i);
+				}
+				for (int other : data.getBusConnections(bus)){
+					if (buses.containsKey(other) && visited.add(other)) stack.push(other);
+				}
+			}
+			int[] busPins = new int[group.size()];
+			boolean[] input = new boolean[group.size()];
+			boolean[] attached = new boolean[group.size()];
+			for (int i = 0; i < busPins.length; i++){
+				int pin = group.get(i);
+				busPins[i] = pins.get(data.getPinId(pin));
+				input[i] = data.isPinInput(pin);
+				attached[i] = data.getAttachedEnd(pin) > data.getAttachedStart(pin);
+			}
+			this.flattener.addBus(busPins, input, attached);
+		}
+	}
+
+	private static int[] toArray(List<Integer> list){
+		return list.stream().mapToInt(Integer::intValue).toArray();
+	}
+}
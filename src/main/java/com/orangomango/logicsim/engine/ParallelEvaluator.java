@@ -0,0 +1,222 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bit-parallel evaluator that splits the netlist into connected components and
+ * topological levels and evaluates them on a ForkJoinPool.
+ * Components are independent and are distributed with work stealing, the cells
+ * of a wide level are evaluated in chunks. Every level is evaluated in two phases:
+ * first the cells compute their drivers, then each net driven by the level is resolved
+ * by exactly one task, so no net or driver is ever written by two threads.
+ */
+public class ParallelEvaluator extends BitParallelEvaluator{
+	private static final int CHUNK_SIZE = 256;
+
+	private final ForkJoinPool pool;
+	private final int[][][] levelCells; // component -> level -> cells
+	private final int[][][] levelNets; // component -> level -> nets driven by the level
+	private final int[] componentSize;
+	private final LongAdder evaluations = new LongAdder();
+	private int maxSweeps;
+
+	public ParallelEvaluator(Netlist netlist){
+		this(netlist, ForkJoinPool.commonPool());
+	}
+
+	public ParallelEvaluator(Netlist netlist, ForkJoinPool pool){
+		super(netlist);
+		this.pool = pool;
+
+		// Cells sharing a net belong to the same component
+		int[] parent = new int[netlist.cellCount];
+		for (int c = 0; c < parent.length; c++){
+			parent[c] = c;
+		}
+		for (int net = 0; net < netlist.netCount; net++){
+			int first = -1;
+			for (int i = netlist.netDriverStart[net]; i < netlist.netDriverStart[net+1]; i++){
+				int cell = netlist.driverCell[netlist.netDrivers[i]];
+				if (cell < 0) continue;
+				if (first < 0) first = cell;
+				else parent[find(parent, cell)] = find(parent, first);
+			}
+			for (int i = netlist.fanoutStart[net]; i < netlist.fanoutStart[net+1]; i++){
+				int cell = netlist.fanout[i];
+				if (first < 0) first = cell;
+				else parent[find(parent, cell)] = find(parent, first);
+			}
+		}
+
+		// Level of a cell: one more than the level of the cells driving it, feedback edges are ignored
+		int[] level = new int[netlist.cellCount];
+		boolean[] done = new boolean[netlist.cellCount];
+		for (int cell : this.order){
+			int l = 0;
+			for (int i = netlist.inputStart[cell]; i < netlist.inputStart[cell+1]; i++){
+				int net = netlist.inputs[i];
+				for (int j = netlist.netDriverStart[net]; j < netlist.netDriverStart[net+1]; j++){
+					int d = netlist.driverCell[netlist.netDrivers[j]];
+					if (d >= 0 && done[d]) l = Math.max(l, level[d]+1);
+				}
+			}
+			level[cell] = l;
+			done[cell] = true;
+		}
+
+		Map<Integer, List<List<Integer>>> components = new LinkedHashMap<>();
+		for (int cell : this.order){
+			List<List<Integer>> levels = components.computeIfAbsent(find(parent, cell), k -> new ArrayList<>());
+			while (levels.size() <= level[cell]) levels.add(new ArrayList<>());
+			levels.get(level[cell]).add(cell);
+		}
+		this.levelCells = new int[components.size()][][];
+		this.levelNets = new int[components.size()][][];
+		this.componentSize = new int[components.size()];
+		int[] marked = new int[netlist.netCount];
+		int mark = 0;
+		int k = 0;
+		for (List<List<Integer>> levels : components.values()){
+			levels.removeIf(List::isEmpty);
+			this.levelCells[k] = new int[levels.size()][];
+			this.levelNets[k] = new int[levels.size()][];
+			for (int l = 0; l < levels.size(); l++){
+				int[] cells = levels.get(l).stream().mapToInt(Integer::intValue).toArray();
+				mark++;
+				List<Integer> nets = new ArrayList<>();
+				for (int cell : cells){
+					for (int i = netlist.outputStart[cell]; i < netlist.outputStart[cell+1]; i++){
+						int net = netlist.driverNet[netlist.outputs[i]];
+						if (marked[net] != mark){
+							marked[net] = mark;
+							nets.add(net);
+						}
+					}
+				}
+				this.levelCells[k][l] = cells;
+				this.componentSize[k] += cells.length;
+				this.levelNets[k][l] = nets.stream().mapToInt(Integer::intValue).toArray();
+			}
+			k++;
+		}
+	}
+
+	private static int find(int[] parent, int i){
+		while (parent[i] != i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	public int getComponentCount(){
+		return this.levelCells.length;
+	}
+
+	public int getLevelCount(int component){
+		return this.levelCells[component].length;
+	}
+
+	/**
+	 * @return the total amount of cell evaluations done by this evaluator, every sweep evaluates the whole component
+	 */
+	public long getEvaluationCount(){
+		return this.evaluations.sum();
+	}
+
+	/**
+	 * Evaluate every component until no lane changes anymore
+	 * @param maxSweeps maximum number of sweeps of a component, only feedback loops need more than one
+	 * @return the lanes that are still changing, 0 if every lane is stable
+	 */
+	@Override
+	public long evaluate(int maxSweeps){
+		if (this.levelCells.length == 0) return 0;
+		this.maxSweeps = maxSweeps;
+		return this.pool.invoke(new ComponentTask(0, this.levelCells.length));
+	}
+
+	private long evaluateComponent(int component){
+		int[][] cells = this.levelCells[component];
+		int[][] nets = this.levelNets[component];
+		long changed = -1L;
+		for (int s = 0; s < this.maxSweeps && changed != 0; s++){
+			changed = 0;
+			this.evaluations.add(this.componentSize[component]);
+			for (int l = 0; l < cells.length; l++){
+				if (cells[l].length <= CHUNK_SIZE){
+					for (int cell : cells[l]){
+						computeCell(cell);
+					}
+					for (int net : nets[l]){
+						changed |= resolve(net);
+					}
+				} else {
+					new LevelTask(cells[l], 0, cells[l].length, false).invoke();
+					changed |= new LevelTask(nets[l], 0, nets[l].length, true).invoke();
+				}
+			}
+		}
+		return changed;
+	}
+
+	private class ComponentTask extends RecursiveTask<Long>{
+		private final int from, to;
+
+		public ComponentTask(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Long compute(){
+			if (this.to-this.from == 1){
+				return evaluateComponent(this.from);
+			}
+			int mid = (this.from+this.to) >>> 1;
+			ComponentTask left = new ComponentTask(this.from, mid);
+			left.fork();
+			long right = new ComponentTask(mid, this.to).compute();
+			return left.join() | right;
+		}
+	}
+
+	/**
+	 * Compute the drivers of a range of cells, or resolve a range of nets
+	 */
+	private class LevelTask extends RecursiveTask<Long>{
+		private final int[] items;
+		private final int from, to;
+		private final boolean resolve;
+
+		public LevelTask(int[] items, int from, int to, boolean resolve){
+			this.items = items;
+			this.from = from;
+			this.to = to;
+			this.resolve = resolve;
+		}
+
+		@Override
+		protected Long compute(){
+			if (this.to-this.from > CHUNK_SIZE){
+				int mid = (this.from+this.to) >>> 1;
+				LevelTask left = new LevelTask(this.items, this.from, mid, this.resolve);
+				left.fork();
+				long right = new LevelTask(this.items, mid, this.to, this.resolve).compute();
+				return left.join() | right;
+			}
+			long changed = 0;
+			for (int i = this.from; i < this.to; i++){
+				if (this.resolve){
+					changed |= resolve(this.items[i]);
+				} else {
+					computeCell(this.items[i]);
+				}
+			}
+			return changed;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.*;
+
+/**
+ * Hashed timing wheel used for every delayed action of the simulation.
+ * Time is counted in integer ticks. In real-time mode a single thread advances
+ * the wheel one tick every TICK_DURATION ms and expired tasks are handed to the
+ * simulator so they run on the simulation thread. In simulated mode nobody
+ * waits: the simulator jumps straight to the next tick that has something to do.
+ */
+public class Scheduler{
+	public static final long TICK_DURATION = 1; // ms, real-time mode only
+	private static final int WHEEL_SIZE = 512;
+	private static final Scheduler INSTANCE = new Scheduler(WHEEL_SIZE, TICK_DURATION);
+
+	private final ArrayDeque<Task>[] wheel;
+	private final int mask;
+	private final long tickNanos;
+	private long tick;
+	private long startTime;
+	private int pendingCount;
+	private boolean realTime = true;
+	private Thread thread;
+
+	public static class Task implements Evaluable{
+		private final Runnable runnable;
+		private final long deadline;
+		private volatile boolean cancelled;
+
+		private Task(Runnable runnable, long deadline){
+			this.runnable = runnable;
+			this.deadline = deadline;
+		}
+
+		public void cancel(){
+			this.cancelled = true;
+		}
+
+		public boolean isCancelled(){
+			return this.cancelled;
+		}
+
+		public long getDeadline(){
+			return this.deadline;
+		}
+
+		void run(){
+			if (!this.cancelled){
+				this.runnable.run();
+			}
+		}
+
+		/**
+		 * Real-time mode: the expired task runs on the simulation thread
+		 */
+		@Override
+		public void update(){
+			run();
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public Scheduler(int wheelSize, long tickDuration){
+		if (Integer.bitCount(wheelSize) != 1){
+			throw new IllegalArgumentException("Wheel size must be a power of 2");
+		}
+		this.wheel = new ArrayDeque[wheelSize];
+		for (int i = 0; i < wheelSize; i++){
+			this.wheel[i] = new ArrayDeque<>();
+		}
+		this.mask = wheelSize-1;
+		this.tickNanos = tickDuration*1_000_000L;
+	}
+
+	public static Scheduler getInstance(){
+		return INSTANCE;
+	}
+
+	/**
+	 * Run the given action after the given amount of ticks
+	 * @return a handle that can be used to cancel the action
+	 */
+	public synchronized Task schedule(Runnable r, long delay){
+		Task task = new Task(r, this.tick+Math.max(1, delay));
+		this.wheel[(int)(task.deadline & this.mask)].add(task);
+		this.pendingCount++;
+		if (this.realTime && this.thread == null){
+			start();
+		}
+		notifyAll();
+		return task;
+	}
+
+	/**
+	 * Drop every pending task, the time is not reset
+	 */
+	public synchronized void clear(){
+		for (ArrayDeque<Task> bucket : this.wheel){
+			for (Task task : bucket){
+				task.cancel();
+			}
+			bucket.clear();
+		}
+		this.pendingCount = 0;
+	}
+
+	public synchronized int getPendingCount(){
+		return this.pendingCount;
+	}
+
+	public synchronized long getTime(){
+		return this.tick;
+	}
+
+	public synchronized boolean isRealTime(){
+		return this.realTime;
+	}
+
+	public synchronized void setRealTime(boolean value){
+		this.realTime = value;
+		if (this.realTime && this.thread == null && this.pendingCount > 0){
+			start();
+		}
+		notifyAll(); // The real-time thread exits by itself
+	}
+
+	private void start(){
+		this.startTime = System.nanoTime()-this.tick*this.tickNanos;
+		this.thread = new Thread(this::run, "scheduler");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private List<Task> expire(){
+		List<Task> expired = new ArrayList<>();
+		Iterator<Task> iterator = this.wheel[(int)(this.tick & this.mask)].iterator();
+		while (iterator.hasNext()){
+			Task task = iterator.next();
+			if (task.cancelled){
+				iterator.remove();
+				this.pendingCount--;
+			} else if (task.deadline <= this.tick){
+				iterator.remove();
+				this.pendingCount--;
+				expired.add(task);
+			}
+		}
+		return expired;
+	}
+
+	private long nextDeadline(){
+		// Look for something due during the current rotation of the wheel first
+		for (int i = 1; i <= this.wheel.length; i++){
+			long t = this.tick+i;
+			for (Task task : this.wheel[(int)(t & this.mask)]){
+				if (!task.cancelled && task.deadline == t){
+					return t;
+				}
+			}
+		}
+		long next = Long.MAX_VALUE;
+		for (ArrayDeque<Task> bucket : this.wheel){
+			for (Task task : bucket){
+				if (!task.cancelled && task.deadline < next){
+					next = task.deadline;
+				}
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Simulated mode only: jump to the next tick that has expired tasks, without going past the given limit
+	 * @return the expired tasks, empty if nothing is due before the limit
+	 */
+	public synchronized List<Task> advance(long limit){
+		if (this.realTime){
+			throw new IllegalStateException("The scheduler is running in real-time mode");
+		}
+		long next = this.pendingCount == 0 ? Long.MAX_VALUE : nextDeadline();
+		if (next > limit || next == Long.MAX_VALUE){
+			return Collections.emptyList();
+		}
+		this.tick = next;
+		return expire();
+	}
+
+	private synchronized List<Task> awaitTick() throws InterruptedException{
+		if (this.pendingCount == 0){
+			while (this.pendingCount == 0 && this.realTime){
+				wait();
+			}
+			this.startTime = System.nanoTime()-this.tick*this.tickNanos; // Do not try to catch up the idle time
+		}
+		if (!this.realTime){
+			this.thread = null;
+			return null;
+		}
+		long wait = this.startTime+(this.tick+1)*this.tickNanos-System.nanoTime();
+		if (wait > 0){
+			wait(wait/1_000_000L, (int)(wait%1_000_000L));
+			if (System.nanoTime() < this.startTime+(this.tick+1)*this.tickNanos){
+				return Collections.emptyList(); // Woken up by a new task
+			}
+		}
+		this.tick++;
+		return expire();
+	}
+
+	private void run(){
+		while (true){
+			try {
+				List<Task> expired = awaitTick();
+				if (expired == null) return;
+				for (Task task : expired){
+					Simulator.getInstance().schedule(task);
+				}
+			} catch (InterruptedException ex){
+				ex.printStackTrace();
+				return;
+			}
+		}
+	}
+}
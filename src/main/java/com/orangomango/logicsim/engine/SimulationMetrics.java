@@ -0,0 +1,137 @@
+package com.orangomango.logicsim.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Counters describing how hard the simulator is working.
+ * Counting is cheap and contention-free, the rates are computed over windows of at least one second.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean{
+	private static final SimulationMetrics INSTANCE = new SimulationMetrics();
+	private static final long WINDOW = 1_000_000_000L; // ns
+
+	private final LongAdder evaluations = new LongAdder();
+	private final LongAdder transitions = new LongAdder();
+	private volatile long inputChangedAt;
+	private volatile long settleLatency = -1;
+	private volatile long frameTime;
+	private volatile String lastLoad = "";
+
+	private long sampleTime = System.nanoTime();
+	private long sampleEvaluations, sampleTransitions;
+	private double evaluationRate, transitionRate;
+
+	public static SimulationMetrics getInstance(){
+		return INSTANCE;
+	}
+
+	/**
+	 * Publish the metrics on the platform MBean server
+	 */
+	public static void register(){
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("com.orangomango.logicsim:type=SimulationMetrics"));
+		} catch (JMException ex){
+			ex.printStackTrace();
+		}
+	}
+
+	public void countEvaluations(long amount){
+		this.evaluations.add(amount);
+	}
+
+	public void countTransitions(long amount){
+		this.transitions.add(amount);
+	}
+
+	/**
+	 * An input changed, the settle latency is measured from now
+	 */
+	public void inputChanged(){
+		this.inputChangedAt = System.nanoTime();
+	}
+
+	/**
+	 * Nothing is pending anymore
+	 */
+	public void settled(){
+		long start = this.inputChangedAt;
+		if (start != 0){
+			this.settleLatency = System.nanoTime()-start;
+			this.inputChangedAt = 0;
+		}
+	}
+
+	public void frameRendered(long nanos){
+		this.frameTime = nanos;
+	}
+
+	/**
+	 * @param report the file and the time of every phase of the last project loaded
+	 */
+	public void loadFinished(String report){
+		this.lastLoad = report;
+	}
+
+	private synchronized void sample(){
+		long now = System.nanoTime();
+		long elapsed = now-this.sampleTime;
+		if (elapsed >= WINDOW){
+			long evaluations = this.evaluations.sum();
+			long transitions = this.transitions.sum();
+			this.evaluationRate = (evaluations-this.sampleEvaluations)*1e9/elapsed;
+			this.transitionRate = (transitions-this.sampleTransitions)*1e9/elapsed;
+			this.sampleEvaluations = evaluations;
+			this.sampleTransitions = transitions;
+			this.sampleTime = now;
+		}
+	}
+
+	@Override
+	public synchronized double getEvaluationsPerSecond(){
+		sample();
+		return this.evaluationRate;
+	}
+
+	@Override
+	public synchronized double getTransitionsPerSecond(){
+		sample();
+		return this.transitionRate;
+	}
+
+	@Override
+	public long getTotalEvaluations(){
+		return this.evaluations.sum();
+	}
+
+	@Override
+	public long getTotalTransitions(){
+		return this.transitions.sum();
+	}
+
+	@Override
+	public int getPendingEvents(){
+		return Simulator.getInstance().getPendingCount()+Scheduler.getInstance().getPendingCount();
+	}
+
+	/**
+	 * @return the time between the last input change and the moment the circuit settled, -1 if unknown
+	 */
+	@Override
+	public double getSettleLatencyMillis(){
+		long latency = this.settleLatency;
+		return latency < 0 ? -1 : latency/1e6;
+	}
+
+	@Override
+	public double getFrameTimeMillis(){
+		return this.frameTime/1e6;
+	}
+
+	@Override
+	public String getLastLoad(){
+		return this.lastLoad;
+	}
+}
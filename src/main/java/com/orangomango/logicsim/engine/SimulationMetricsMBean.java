@@ -0,0 +1,15 @@
+package com.orangomango.logicsim.engine;
+
+/**
+ * Management interface of SimulationMetrics, visible from JConsole or Mission Control
+ */
+public interface SimulationMetricsMBean{
+	public double getEvaluationsPerSecond();
+	public double getTransitionsPerSecond();
+	public long getTotalEvaluations();
+	public long getTotalTransitions();
+	public int getPendingEvents();
+	public double getSettleLatencyMillis();
+	public double getFrameTimeMillis();
+	public String getLastLoad();
+}
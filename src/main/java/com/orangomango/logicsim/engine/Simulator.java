@@ -0,0 +1,367 @@
+package com.orangomango.logicsim.engine;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Event-driven simulation kernel.
+ * Components are only re-evaluated after something scheduled them (a pin changed,
+ * a switch was toggled, a wire was added...), so an idle circuit costs nothing.
+ *
+ * In REAL_TIME mode (the interactive UI) a thread follows the changes and gate
+ * delays are real milliseconds. In SIMULATED mode no thread is used: the caller
+ * runs settle() and the delays are only counted in scheduler ticks, so the
+ * result does not depend on the speed of the machine.
+ *
+ * A component evaluated too many times in the same tick, or too many times since the
+ * circuit was last idle, is either part of a loop that does not settle or driven by one:
+ * the busy components forming the loop are marked as oscillating and they are not
+ * evaluated anymore until one of them is scheduled again, which means that an input
+ * of the loop changed, or until resetOscillations() is called.
+ *
+ * A component whose evaluation throws is not rescheduled, it runs again the next time
+ * something schedules it. The failure is reported once, until the component evaluates without errors.
+ */
+public class Simulator{
+	public static enum Mode{
+		REAL_TIME, SIMULATED
+	}
+
+	private static class Counter{
+		private long tick;
+		private int instant, total;
+	}
+
+	public static final int DEFAULT_ITERATION_BUDGET = 64;
+	private static final int INSTANT_BUDGET = 32; // Evaluations of a component during the same tick
+	private static final Simulator INSTANCE = new Simulator();
+
+	private final Set<Evaluable> pending = new LinkedHashSet<>();
+	private final Map<Evaluable, Counter> iterations = new HashMap<>();
+	private final Set<Evaluable> oscillating = ConcurrentHashMap.newKeySet();
+	private final Map<Evaluable, List<Evaluable>> loops = new ConcurrentHashMap<>(); // Oscillating component -> its loop
+	private final Set<Evaluable> failed = ConcurrentHashMap.newKeySet();
+	private volatile int iterationBudget = DEFAULT_ITERATION_BUDGET;
+	private volatile BiConsumer<Evaluable, RuntimeException> errorHandler = (e, ex) -> {
+		System.err.println("Evaluation of "+e+" failed");
+		ex.printStackTrace();
+	};
+	private volatile Consumer<Collection<Evaluable>> oscillationHandler = loop -> {};
+	private volatile Mode mode = Mode.REAL_TIME;
+	private Thread thread;
+
+	public static Simulator getInstance(){
+		return INSTANCE;
+	}
+
+	public Mode getMode(){
+		return this.mode;
+	}
+
+	public synchronized void setMode(Mode mode){
+		if (mode == Mode.SIMULATED && this.thread != null){
+			throw new IllegalStateException("The simulation thread is already running");
+		}
+		this.mode = mode;
+		Scheduler.getInstance().setRealTime(mode == Mode.REAL_TIME);
+	}
+
+	public int getIterationBudget(){
+		return this.iterationBudget;
+	}
+
+	/**
+	 * @param budget how many times a component can be evaluated before the circuit is idle again
+	 */
+	public void setIterationBudget(int budget){
+		if (budget < 1){
+			throw new IllegalArgumentException("The budget must be positive");
+		}
+		this.iterationBudget = budget;
+	}
+
+	/**
+	 * Set what happens when a loop that does not settle is found, nothing by default.
+	 * It is called on the simulation thread.
+	 */
+	public void setOscillationHandler(Consumer<Collection<Evaluable>> handler){
+		this.oscillationHandler = handler;
+	}
+
+	/**
+	 * Set what happens when the evaluation of a component throws, it is called on the simulation thread
+	 */
+	public void setErrorHandler(BiConsumer<Evaluable, RuntimeException> handler){
+		this.errorHandler = handler;
+	}
+
+	public boolean isOscillating(Evaluable e){
+		return this.oscillating.contains(e);
+	}
+
+	public Set<Evaluable> getOscillating(){
+		return Collections.unmodifiableSet(this.oscillating);
+	}
+
+	/**
+	 * Mark the given components as oscillating and stop evaluating them until one of them is scheduled again
+	 */
+	public void reportOscillation(Collection<? extends Evaluable> loop){
+		if (loop.isEmpty()) return;
+		List<Evaluable> members = Collections.unmodifiableList(new ArrayList<>(loop));
+		this.oscillating.addAll(members);
+		for (Evaluable e : members){
+			this.loops.put(e, members);
+			e.halt();
+		}
+		synchronized (this.pending){
+			this.pending.removeAll(members);
+		}
+		synchronized (this.iterations){
+			this.iterations.keySet().removeAll(members);
+		}
+		this.oscillationHandler.accept(members);
+	}
+
+	/**
+	 * The stopped loops are not evaluated, so only a change coming from outside can schedule
+	 * one of their components: the whole loop runs again
+	 */
+	private void release(Evaluable e){
+		List<Evaluable> loop = this.loops.remove(e);
+		if (loop == null) return; // Already released
+		for (Evaluable member : loop){
+			this.loops.remove(member);
+		}
+		this.oscillating.removeAll(loop);
+		scheduleAll(loop);
+	}
+
+	/**
+	 * Allow the oscillating components to be evaluated again, they are not rescheduled
+	 * @return the components that were oscillating
+	 */
+	public List<Evaluable> resetOscillations(){
+		List<Evaluable> released = new ArrayList<>(this.oscillating);
+		this.oscillating.removeAll(released);
+		this.loops.keySet().removeAll(released);
+		synchronized (this.iterations){
+			this.iterations.clear();
+		}
+		return released;
+	}
+
+	/**
+	 * Simulated mode only: evaluate everything that is pending and fast-forward the
+	 * time until the circuit is stable or the given amount of ticks has passed.
+	 * @return the simulated time reached
+	 */
+	public long settle(long maxTicks){
+		if (this.mode != Mode.SIMULATED){
+			throw new IllegalStateException("Only available in simulated mode");
+		}
+		Scheduler scheduler = Scheduler.getInstance();
+		long start = scheduler.getTime();
+		long limit = maxTicks > Long.MAX_VALUE-start ? Long.MAX_VALUE : start+maxTicks;
+		while (true){
+			Evaluable e;
+			while ((e = poll()) != null){
+				evaluate(e);
+			}
+			List<Scheduler.Task> expired = scheduler.advance(limit);
+			if (expired.isEmpty()) break;
+			for (Scheduler.Task task : expired){
+				task.run();
+			}
+		}
+		if (scheduler.getPendingCount() == 0){
+			idle();
+		}
+		return scheduler.getTime();
+	}
+
+	public void schedule(Evaluable e){
+		if (this.oscillating.contains(e)){
+			release(e);
+			return;
+		}
+		synchronized (this.pending){
+			if (this.pending.add(e)){
+				this.pending.notifyAll();
+			}
+		}
+	}
+
+	public void scheduleAll(Collection<? extends Evaluable> list){
+		synchronized (this.pending){
+			boolean added = false;
+			for (Evaluable e : list){
+				if (this.oscillating.contains(e)){
+					release(e);
+				} else if (this.pending.add(e)){
+					added = true;
+				}
+			}
+			if (added){
+				this.pending.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Drop every pending evaluation and every delayed action, used when the whole circuit is discarded
+	 */
+	public void clear(){
+		synchronized (this.pending){
+			this.pending.clear();
+		}
+		this.failed.clear();
+		resetOscillations();
+		Scheduler.getInstance().clear();
+	}
+
+	public int getPendingCount(){
+		synchronized (this.pending){
+			return this.pending.size();
+		}
+	}
+
+	public synchronized void start(){
+		if (this.thread != null || this.mode != Mode.REAL_TIME) return;
+		this.thread = new Thread(this::run, "simulation");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private void evaluate(Evaluable e){
+		e.update();
+		SimulationMetrics.getInstance().countEvaluations(1);
+		if (e instanceof Scheduler.Task) return; // Only components can form a loop
+		long tick = Scheduler.getInstance().getTime();
+		List<Evaluable> busy, loop;
+		synchronized (this.iterations){
+			Counter counter = this.iterations.computeIfAbsent(e, k -> new Counter());
+			if (counter.tick != tick){
+				counter.tick = tick;
+				counter.instant = 0;
+			}
+			counter.instant++;
+			counter.total++;
+			int budget = this.iterationBudget;
+			// Look for a loop every time the component uses its whole budget again
+			if (counter.instant % INSTANT_BUDGET != 0 && counter.total % budget != 0) return;
+
+			// The other components of the loop have been evaluated about as many times
+			busy = new ArrayList<>();
+			for (Map.Entry<Evaluable, Counter> entry : this.iterations.entrySet()){
+				Counter c = entry.getValue();
+				if ((c.tick == tick && c.instant > INSTANT_BUDGET/2) || c.total > budget/2){
+					busy.add(entry.getKey());
+				}
+			}
+			loop = trim(busy);
+			if (loop.isEmpty()) return; // Only driven by a loop that is not busy enough yet, or simply very busy
+		}
+		reportOscillation(loop);
+	}
+
+	/**
+	 * The components driven by a loop are evaluated as often as the loop itself, remove
+	 * the ones that do not drive any other busy component and the ones that are not driven
+	 * by any, until only the loops are left.
+	 */
+	private static List<Evaluable> trim(List<Evaluable> busy){
+		Map<Evaluable, List<Evaluable>> predecessors = new HashMap<>();
+		Map<Evaluable, Integer> successorCount = new HashMap<>();
+		for (Evaluable e : busy){
+			predecessors.put(e, new ArrayList<>());
+			successorCount.put(e, 0);
+		}
+		for (Evaluable e : busy){
+			for (Evaluable next : new HashSet<Evaluable>(e.getFanout())){
+				List<Evaluable> list = predecessors.get(next);
+				if (list != null){
+					list.add(e);
+					successorCount.merge(e, 1, Integer::sum);
+				}
+			}
+		}
+		Map<Evaluable, Integer> predecessorCount = new HashMap<>();
+		for (Map.Entry<Evaluable, List<Evaluable>> entry : predecessors.entrySet()){
+			predecessorCount.put(entry.getKey(), entry.getValue().size());
+		}
+
+		Deque<Evaluable> removed = new ArrayDeque<>();
+		Set<Evaluable> loop = new LinkedHashSet<>(busy);
+		for (Evaluable e : busy){
+			if (successorCount.get(e) == 0 || predecessorCount.get(e) == 0) removed.add(e);
+		}
+		while (!removed.isEmpty()){
+			Evaluable e = removed.poll();
+			if (!loop.remove(e)) continue;
+			for (Evaluable previous : predecessors.get(e)){
+				if (successorCount.merge(previous, -1, Integer::sum) == 0) removed.add(previous);
+			}
+			for (Evaluable next : new HashSet<Evaluable>(e.getFanout())){
+				if (predecessorCount.containsKey(next) && predecessorCount.merge(next, -1, Integer::sum) == 0) removed.add(next);
+			}
+		}
+		return new ArrayList<>(loop);
+	}
+
+	/**
+	 * Nothing is pending anymore, the iteration budget starts again
+	 */
+	private void idle(){
+		synchronized (this.iterations){
+			this.iterations.clear();
+		}
+		SimulationMetrics.getInstance().settled();
+	}
+
+	private Evaluable poll(){
+		synchronized (this.pending){
+			if (this.pending.isEmpty()) return null;
+			Iterator<Evaluable> iterator = this.pending.iterator();
+			Evaluable e = iterator.next();
+			iterator.remove();
+			return e;
+		}
+	}
+
+	private Evaluable next() throws InterruptedException{
+		synchronized (this.pending){
+			while (this.pending.isEmpty()){
+				this.pending.wait();
+			}
+			Iterator<Evaluable> iterator = this.pending.iterator();
+			Evaluable e = iterator.next();
+			iterator.remove();
+			return e;
+		}
+	}
+
+	private void run(){
+		while (true){
+			Evaluable e = null;
+			try {
+				e = next();
+				evaluate(e);
+				if (!this.failed.isEmpty()) this.failed.remove(e);
+				if (getPendingCount() == 0 && Scheduler.getInstance().getPendingCount() == 0){
+					idle();
+				}
+			} catch (InterruptedException ex){
+				ex.printStackTrace();
+				return;
+			} catch (RuntimeException ex){
+				// Not rescheduled, an edit or an input change runs it again
+				if (e != null && this.failed.add(e)){
+					this.errorHandler.accept(e, ex);
+				}
+			}
+		}
+	}
+}
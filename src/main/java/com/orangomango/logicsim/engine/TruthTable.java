@@ -0,0 +1,64 @@
+package com.orangomango.logicsim.engine;
+
+/**
+ * Result of an exhaustive evaluation, stored as one bit per row for each output
+ */
+public class TruthTable{
+	private final int inputCount;
+	private final long[][] outputs;
+	private final long[] unstable;
+
+	TruthTable(int inputCount, long[][] outputs, long[] unstable){
+		this.inputCount = inputCount;
+		this.outputs = outputs;
+		this.unstable = unstable;
+	}
+
+	public int getInputCount(){
+		return this.inputCount;
+	}
+
+	public int getOutputCount(){
+		return this.outputs.length;
+	}
+
+	public int getRowCount(){
+		return 1 << this.inputCount;
+	}
+
+	public boolean get(int row, int output){
+		return (this.outputs[output][row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * @return true if the circuit did not settle for this row (feedback loops)
+	 */
+	public boolean isUnstable(int row){
+		return (this.unstable[row >>> 6] & (1L << row)) != 0;
+	}
+
+	public String toString(int maxRows){
+		StringBuilder builder = new StringBuilder();
+		int rows = Math.min(getRowCount(), maxRows);
+		for (int r = 0; r < rows; r++){
+			for (int i = 0; i < this.inputCount; i++){
+				builder.append((r >>> i) & 1);
+			}
+			builder.append(" | ");
+			for (int o = 0; o < this.outputs.length; o++){
+				builder.append(get(r, o) ? 1 : 0);
+			}
+			if (isUnstable(r)) builder.append(" (unstable)");
+			builder.append("\n");
+		}
+		if (rows < getRowCount()){
+			builder.append("... ").append(getRowCount()-rows).append(" more rows\n");
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public String toString(){
+		return toString(getRowCount());
+	}
+}
@@ -0,0 +1,324 @@
+package com.orangomango.logicsim.io;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary version of the .lsim and .lsimc files.
+ *
+ * Layout: the magic number, the format version (varint) and a flags byte, followed by
+ * typed sections. Every section is a type byte, its length in bytes (varint) and its
+ * payload, readers skip the sections they do not know. Strings are stored once in the
+ * STRINGS section and referenced by index, ids and counts are varints (zigzag encoded
+ * when they can be negative) and coordinates are floats when every coordinate of the
+ * file fits in a float without losing precision, doubles otherwise.
+ */
+public final class BinaryFormat{
+	public static final int MAGIC = 0x4C53494D; // "LSIM"
+	public static final int VERSION = 1;
+
+	private static final int FLAG_FLOAT = 1;
+
+	private static final byte SECTION_STRINGS = 1;
+	private static final byte SECTION_CHIP = 2;
+	private static final byte SECTION_GATES = 3;
+	private static final byte SECTION_WIRES = 4;
+
+	private static final int GATE_COLOR = 1;
+	private static final int GATE_FILE = 2;
+	private static final int GATE_BUS = 4;
+
+	private BinaryFormat(){
+	}
+
+	/**
+	 * @return true if the file starts with the magic number of the binary format
+	 */
+	public static boolean isBinary(File file) throws IOException{
+		if (file.length() < 4) return false;
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))){
+			return input.readInt() == MAGIC;
+		}
+	}
+
+	// Reading
+
+	public static CircuitData read(File file) throws IOException{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buffer);
+		}
+	}
+
+	public static CircuitData read(ByteBuffer buffer) throws IOException{
+		try {
+			if (buffer.getInt() != MAGIC){
+				throw new IOException("Not a LogicSim binary file");
+			}
+			int version = readVarint(buffer);
+			if (version > VERSION){
+				throw new IOException("Unsupported binary format version: "+version);
+			}
+			boolean floats = (buffer.get() & FLAG_FLOAT) != 0;
+			CircuitData data = new CircuitData();
+			String[] strings = new String[0];
+			while (buffer.hasRemaining()){
+				byte type = buffer.get();
+				int length = readVarint(buffer);
+				int end = buffer.position()+length;
+				switch (type){
+					case SECTION_STRINGS:
+						strings = new String[readVarint(buffer)];
+						for (int i = 0; i < strings.length; i++){
+							byte[] bytes = new byte[readVarint(buffer)];
+							buffer.get(bytes);
+							strings[i] = new String(bytes, StandardCharsets.UTF_8);
+						}
+						break;
+					case SECTION_CHIP:
+						data.setChip(strings[readVarint(buffer)], buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+						break;
+					case SECTION_GATES:
+						readGates(buffer, data, strings, floats);
+						break;
+					case SECTION_WIRES:
+						readWires(buffer, data, floats);
+						break;
+				}
+				buffer.position(end);
+			}
+			return data;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ex){
+			throw new IOException("Corrupted binary file", ex);
+		}
+	}
+
+	private static void readGates(ByteBuffer buffer, CircuitData data, String[] strings, boolean floats){
+		int count = readVarint(buffer);
+		for (int i = 0; i < count; i++){
+			String name = strings[readVarint(buffer)];
+			String label = strings[readVarint(buffer)];
+			int g = data.addGate(name, readCoordinate(buffer, floats), readCoordinate(buffer, floats), readCoordinate(buffer, floats), readCoordinate(buffer, floats), label);
+			int flags = buffer.get();
+			if ((flags & GATE_COLOR) != 0){
+				data.setGateColor(g, buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+			}
+			if ((flags & GATE_FILE) != 0){
+				data.setFileName(g, strings[readVarint(buffer)]);
+			}
+			if ((flags & GATE_BUS) != 0){
+				int id = readSignedVarint(buffer);
+				int[] connections = new int[readVarint(buffer)];
+				for (int j = 0; j < connections.length; j++){
+					connections[j] = readSignedVarint(buffer);
+				}
+				data.setBus(g, id, connections);
+			}
+			int pins = readVarint(buffer);
+			for (int j = 0; j < pins; j++){
+				int id = readVarint(buffer);
+				double x = readCoordinate(buffer, floats);
+				double y = readCoordinate(buffer, floats);
+				double w = readCoordinate(buffer, floats);
+				double h = readCoordinate(buffer, floats);
+				boolean input = buffer.get() != 0;
+				int[] attached = new int[readVarint(buffer)];
+				for (int k = 0; k < attached.length; k++){
+					attached[k] = readVarint(buffer);
+				}
+				data.addPin(id, x, y, w, h, input, attached);
+			}
+		}
+	}
+
+	private static void readWires(ByteBuffer buffer, CircuitData data, boolean floats){
+		int count = readVarint(buffer);
+		for (int i = 0; i < count; i++){
+			int pin1 = readVarint(buffer);
+			int pin2 = readVarint(buffer);
+			double[] points = new double[readVarint(buffer)*2];
+			for (int j = 0; j < points.length; j++){
+				points[j] = readCoordinate(buffer, floats);
+			}
+			data.addWire(pin1, pin2, points);
+		}
+	}
+
+	private static double readCoordinate(ByteBuffer buffer, boolean floats){
+		return floats ? buffer.getFloat() : buffer.getDouble();
+	}
+
+	static int readVarint(ByteBuffer buffer){
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7){
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) return value;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	private static int readSignedVarint(ByteBuffer buffer){
+		int value = readVarint(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	// Writing
+
+	public static void write(CircuitData data, File file) throws IOException{
+		try (FileOutputStream output = new FileOutputStream(file)){
+			output.write(toBytes(data));
+		}
+	}
+
+	public static byte[] toBytes(CircuitData data){
+		boolean floats = fitsInFloats(data);
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		ByteArrayOutputStream gates = new ByteArrayOutputStream();
+		ByteArrayOutputStream wires = new ByteArrayOutputStream();
+		ByteArrayOutputStream chip = new ByteArrayOutputStream();
+
+		writeVarint(gates, data.getGateCount());
+		for (int g = 0; g < data.getGateCount(); g++){
+			writeVarint(gates, stringIndex(strings, data.getGateName(g)));
+			writeVarint(gates, stringIndex(strings, data.getLabel(g)));
+			writeCoordinate(gates, data.getGateX(g), floats);
+			writeCoordinate(gates, data.getGateY(g), floats);
+			writeCoordinate(gates, data.getGateWidth(g), floats);
+			writeCoordinate(gates, data.getGateHeight(g), floats);
+			int flags = (data.hasGateColor(g) ? GATE_COLOR : 0) | (data.getFileName(g) != null ? GATE_FILE : 0) | (data.isBus(g) ? GATE_BUS : 0);
+			gates.write(flags);
+			if (data.hasGateColor(g)){
+				for (int c = 0; c < 3; c++){
+					writeDouble(gates, data.getGateColor(g, c));
+				}
+			}
+			if (data.getFileName(g) != null){
+				writeVarint(gates, stringIndex(strings, data.getFileName(g)));
+			}
+			if (data.isBus(g)){
+				writeSignedVarint(gates, data.getBusId(g));
+				int[] connections = data.getBusConnections(g);
+				writeVarint(gates, connections.length);
+				for (int c : connections){
+					writeSignedVarint(gates, c);
+				}
+			}
+			writeVarint(gates, data.getPinEnd(g)-data.getPinStart(g));
+			for (int p = data.getPinStart(g); p < data.getPinEnd(g); p++){
+				writeVarint(gates, data.getPinId(p));
+				writeCoordinate(gates, data.getPinX(p), floats);
+				writeCoordinate(gates, data.getPinY(p), floats);
+				writeCoordinate(gates, data.getPinWidth(p), floats);
+				writeCoordinate(gates, data.getPinHeight(p), floats);
+				gates.write(data.isPinInput(p) ? 1 : 0);
+				writeVarint(gates, data.getAttachedEnd(p)-data.getAttachedStart(p));
+				for (int i = data.getAttachedStart(p); i < data.getAttachedEnd(p); i++){
+					writeVarint(gates, data.getAttached(i));
+				}
+			}
+		}
+
+		writeVarint(wires, data.getWireCount());
+		for (int w = 0; w < data.getWireCount(); w++){
+			writeVarint(wires, data.getWirePin1(w));
+			writeVarint(wires, data.getWirePin2(w));
+			writeVarint(wires, data.getPointCount(w));
+			for (int i = 0; i < data.getPointCount(w); i++){
+				writeCoordinate(wires, data.getPointX(w, i), floats);
+				writeCoordinate(wires, data.getPointY(w, i), floats);
+			}
+		}
+
+		if (data.isChip()){
+			writeVarint(chip, stringIndex(strings, data.getChipName()));
+			for (int c = 0; c < 3; c++){
+				writeDouble(chip, data.getChipColor(c));
+			}
+		}
+
+		ByteArrayOutputStream table = new ByteArrayOutputStream();
+		writeVarint(table, strings.size());
+		for (String s : strings.keySet()){
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarint(table, bytes.length);
+			table.writeBytes(bytes);
+		}
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		writeInt(output, MAGIC);
+		writeVarint(output, VERSION);
+		output.write(floats ? FLAG_FLOAT : 0);
+		writeSection(output, SECTION_STRINGS, table);
+		if (data.isChip()) writeSection(output, SECTION_CHIP, chip);
+		writeSection(output, SECTION_GATES, gates);
+		writeSection(output, SECTION_WIRES, wires);
+		return output.toByteArray();
+	}
+
+	private static boolean fitsInFloats(CircuitData data){
+		for (int g = 0; g < data.getGateCount(); g++){
+			if (!isFloat(data.getGateX(g)) || !isFloat(data.getGateY(g)) || !isFloat(data.getGateWidth(g)) || !isFloat(data.getGateHeight(g))) return false;
+		}
+		for (int p = 0; p < data.getPinCount(); p++){
+			if (!isFloat(data.getPinX(p)) || !isFloat(data.getPinY(p)) || !isFloat(data.getPinWidth(p)) || !isFloat(data.getPinHeight(p))) return false;
+		}
+		for (int w = 0; w < data.getWireCount(); w++){
+			for (int i = 0; i < data.getPointCount(w); i++){
+				if (!isFloat(data.getPointX(w, i)) || !isFloat(data.getPointY(w, i))) return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isFloat(double value){
+		return (double)(float)value == value;
+	}
+
+	private static int stringIndex(Map<String, Integer> strings, String s){
+		return strings.computeIfAbsent(s, k -> strings.size());
+	}
+
+	private static void writeSection(ByteArrayOutputStream output, byte type, ByteArrayOutputStream payload){
+		output.write(type);
+		writeVarint(output, payload.size());
+		output.writeBytes(payload.toByteArray());
+	}
+
+	private static void writeCoordinate(ByteArrayOutputStream output, double value, boolean floats){
+		if (floats){
+			writeInt(output, Float.floatToIntBits((float)value));
+		} else {
+			writeDouble(output, value);
+		}
+	}
+
+	private static void writeDouble(ByteArrayOutputStream output, double value){
+		long bits = Double.doubleToLongBits(value);
+		writeInt(output, (int)(bits >>> 32));
+		writeInt(output, (int)bits);
+	}
+
+	private static void writeInt(ByteArrayOutputStream output, int value){
+		output.write(value >>> 24);
+		output.write(value >>> 16);
+		output.write(value >>> 8);
+		output.write(value);
+	}
+
+	static void writeVarint(ByteArrayOutputStream output, int value){
+		while ((value & ~0x7F) != 0){
+			output.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.write(value);
+	}
+
+	private static void writeSignedVarint(ByteArrayOutputStream output, int value){
+		writeVarint(output, (value << 1) ^ (value >> 31));
+	}
+}
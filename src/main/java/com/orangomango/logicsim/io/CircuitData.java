@@ -0,0 +1,443 @@
+package com.orangomango.logicsim.io;
+
+import java.util.*;
+import java.io.*;
+import org.json.JSONObject;
+import org.json.JSONArray;
+
+/**
+ * Content of a .lsim or .lsimc file kept in flat arrays, independent of JavaFX and
+ * of the format the file was stored in. Every gate owns a contiguous range of pins,
+ * rectangles take 4 slots (x, y, w, h) and wire points take 2 slots (x, y).
+ * Gates are added first and their pins are appended to the last added gate.
+ */
+public class CircuitData{
+	private String chipName;
+	private double[] chipColor;
+
+	private int gateCount;
+	private String[] gateNames = new String[16];
+	private String[] labels = new String[16];
+	private String[] fileNames = new String[16];
+	private double[] gateRects = new double[64];
+	private double[] gateColors = new double[48]; // NaN if the gate has no color
+	private int[] busIds = new int[16];
+	private int[][] busConnections = new int[16][]; // null if the gate is not a bus
+	private int[] pinStart = new int[17];
+
+	private int pinCount;
+	private int[] pinIds = new int[32];
+	private double[] pinRects = new double[128];
+	private boolean[] pinInputs = new boolean[32];
+	private int[] attachedStart = new int[33];
+	private int[] attached = new int[32];
+
+	private int wireCount;
+	private int[] wirePins = new int[32];
+	private int[] pointStart = new int[17];
+	private double[] points = new double[32];
+
+	/**
+	 * Read a file in any of the supported formats
+	 */
+	public static CircuitData read(File file) throws IOException{
+		if (BinaryFormat.isBinary(file)){
+			return BinaryFormat.read(file);
+		}
+		return JsonFormat.read(file);
+	}
+
+	public void setChip(String name, double red, double green, double blue){
+		this.chipName = name;
+		this.chipColor = new double[]{red, green, blue};
+	}
+
+	public boolean isChip(){
+		return this.chipName != null;
+	}
+
+	public String getChipName(){
+		return this.chipName;
+	}
+
+	/**
+	 * @param component 0 for red, 1 for green and 2 for blue
+	 */
+	public double getChipColor(int component){
+		return this.chipColor[component];
+	}
+
+	// Gates
+
+	public int addGate(String name, double x, double y, double w, double h, String label){
+		int g = this.gateCount;
+		if (g == this.gateNames.length){
+			int size = g*2;
+			this.gateNames = Arrays.copyOf(this.gateNames, size);
+			this.labels = Arrays.copyOf(this.labels, size);
+			this.fileNames = Arrays.copyOf(this.fileNames, size);
+			this.gateRects = Arrays.copyOf(this.gateRects, size*4);
+			this.gateColors = Arrays.copyOf(this.gateColors, size*3);
+			this.busIds = Arrays.copyOf(this.busIds, size);
+			this.busConnections = Arrays.copyOf(this.busConnections, size);
+			this.pinStart = Arrays.copyOf(this.pinStart, size+1);
+		}
+		this.gateNames[g] = name;
+		this.labels[g] = label;
+		this.fileNames[g] = null;
+		setRect(this.gateRects, g, x, y, w, h);
+		Arrays.fill(this.gateColors, g*3, g*3+3, Double.NaN);
+		this.busConnections[g] = null;
+		this.pinStart[g] = this.pinCount;
+		this.pinStart[g+1] = this.pinCount;
+		this.gateCount++;
+		return g;
+	}
+
+	public void setGateName(int gate, String name){
+		this.gateNames[gate] = name;
+	}
+
+	public void setGateRect(int gate, double x, double y, double w, double h){
+		setRect(this.gateRects, gate, x, y, w, h);
+	}
+
+	public void setLabel(int gate, String label){
+		this.labels[gate] = label;
+	}
+
+	public void setGateColor(int gate, double red, double green, double blue){
+		this.gateColors[gate*3] = red;
+		this.gateColors[gate*3+1] = green;
+		this.gateColors[gate*3+2] = blue;
+	}
+
+	/**
+	 * Chips only, the name of the chip file relative to this file
+	 */
+	public void setFileName(int gate, String fileName){
+		this.fileNames[gate] = fileName;
+	}
+
+	public void setBus(int gate, int id, int[] connections){
+		this.busIds[gate] = id;
+		this.busConnections[gate] = connections;
+	}
+
+	public int getGateCount(){
+		return this.gateCount;
+	}
+
+	public String getGateName(int gate){
+		return this.gateNames[gate];
+	}
+
+	public double getGateX(int gate){
+		return this.gateRects[gate*4];
+	}
+
+	public double getGateY(int gate){
+		return this.gateRects[gate*4+1];
+	}
+
+	public double getGateWidth(int gate){
+		return this.gateRects[gate*4+2];
+	}
+
+	public double getGateHeight(int gate){
+		return this.gateRects[gate*4+3];
+	}
+
+	public String getLabel(int gate){
+		return this.labels[gate];
+	}
+
+	public boolean hasGateColor(int gate){
+		return !Double.isNaN(this.gateColors[gate*3]);
+	}
+
+	public double getGateColor(int gate, int component){
+		return this.gateColors[gate*3+component];
+	}
+
+	public String getFileName(int gate){
+		return this.fileNames[gate];
+	}
+
+	public boolean isBus(int gate){
+		return this.busConnections[gate] != null;
+	}
+
+	public int getBusId(int gate){
+		return this.busIds[gate];
+	}
+
+	public int[] getBusConnections(int gate){
+		return this.busConnections[gate];
+	}
+
+	public int getPinStart(int gate){
+		return this.pinStart[gate];
+	}
+
+	public int getPinEnd(int gate){
+		return this.pinStart[gate+1];
+	}
+
+	// Pins
+
+	/**
+	 * Add a pin to the last added gate
+	 * @param attached the ids of the pins attached to this one
+	 */
+	public int addPin(int id, double x, double y, double w, double h, boolean input, int[] attached){
+		if (this.gateCount == 0){
+			throw new IllegalStateException("A pin must belong to a gate");
+		}
+		int p = this.pinCount;
+		if (p == this.pinIds.length){
+			int size = p*2;
+			this.pinIds = Arrays.copyOf(this.pinIds, size);
+			this.pinRects = Arrays.copyOf(this.pinRects, size*4);
+			this.pinInputs = Arrays.copyOf(this.pinInputs, size);
+			this.attachedStart = Arrays.copyOf(this.attachedStart, size+1);
+		}
+		this.pinIds[p] = id;
+		setRect(this.pinRects, p, x, y, w, h);
+		this.pinInputs[p] = input;
+		int start = this.attachedStart[p];
+		if (start+attached.length > this.attached.length){
+			this.attached = Arrays.copyOf(this.attached, Math.max(this.attached.length*2, start+attached.length));
+		}
+		System.arraycopy(attached, 0, this.attached, start, attached.length);
+		this.attachedStart[p+1] = start+attached.length;
+		this.pinCount++;
+		this.pinStart[this.gateCount] = this.pinCount;
+		return p;
+	}
+
+	public int getPinCount(){
+		return this.pinCount;
+	}
+
+	public int getPinId(int pin){
+		return this.pinIds[pin];
+	}
+
+	public double getPinX(int pin){
+		return this.pinRects[pin*4];
+	}
+
+	public double getPinY(int pin){
+		return this.pinRects[pin*4+1];
+	}
+
+	public double getPinWidth(int pin){
+		return this.pinRects[pin*4+2];
+	}
+
+	public double getPinHeight(int pin){
+		return this.pinRects[pin*4+3];
+	}
+
+	public boolean isPinInput(int pin){
+		return this.pinInputs[pin];
+	}
+
+	public int getAttachedStart(int pin){
+		return this.attachedStart[pin];
+	}
+
+	public int getAttachedEnd(int pin){
+		return this.attachedStart[pin+1];
+	}
+
+	/**
+	 * @param i index between getAttachedStart() and getAttachedEnd()
+	 * @return the id of the attached pin
+	 */
+	public int getAttached(int i){
+		return this.attached[i];
+	}
+
+	// Wires
+
+	/**
+	 * @param points x and y of every point of the wire
+	 */
+	public int addWire(int pin1, int pin2, double[] points){
+		int w = this.wireCount;
+		if (w*2 == this.wirePins.length){
+			this.wirePins = Arrays.copyOf(this.wirePins, w*4);
+			this.pointStart = Arrays.copyOf(this.pointStart, w*2+1);
+		}
+		this.wirePins[w*2] = pin1;
+		this.wirePins[w*2+1] = pin2;
+		int start = this.pointStart[w];
+		if (start+points.length > this.points.length){
+			this.points = Arrays.copyOf(this.points, Math.max(this.points.length*2, start+points.length));
+		}
+		System.arraycopy(points, 0, this.points, start, points.length);
+		this.pointStart[w+1] = start+points.length;
+		this.wireCount++;
+		return w;
+	}
+
+	public int getWireCount(){
+		return this.wireCount;
+	}
+
+	public int getWirePin1(int wire){
+		return this.wirePins[wire*2];
+	}
+
+	public int getWirePin2(int wire){
+		return this.wirePins[wire*2+1];
+	}
+
+	public int getPointCount(int wire){
+		return (this.pointStart[wire+1]-this.pointStart[wire])/2;
+	}
+
+	public double getPointX(int wire, int i){
+		return this.points[this.pointStart[wire]+i*2];
+	}
+
+	public double getPointY(int wire, int i){
+		return this.points[this.pointStart[wire]+i*2+1];
+	}
+
+	private static void setRect(double[] rects, int i, double x, double y, double w, double h){
+		rects[i*4] = x;
+		rects[i*4+1] = y;
+		rects[i*4+2] = w;
+		rects[i*4+3] = h;
+	}
+
+	// JSON conversion
+
+	public static CircuitData fromJSON(JSONObject json){
+		CircuitData data = new CircuitData();
+		for (Object o : json.getJSONArray("gates")){
+			JSONObject gate = (JSONObject)o;
+			JSONObject rect = gate.getJSONObject("rect");
+			int g = data.addGate(gate.getString("name"), rect.getDouble("x"), rect.getDouble("y"), rect.getDouble("w"), rect.getDouble("h"), gate.getString("label"));
+			JSONObject color = gate.optJSONObject("color");
+			if (color != null){
+				data.setGateColor(g, color.getDouble("red"), color.getDouble("green"), color.getDouble("blue"));
+			}
+			if (gate.has("fileName")){
+				data.setFileName(g, gate.getString("fileName"));
+			}
+			if (gate.has("connections")){
+				data.setBus(g, gate.getInt("id"), toIntArray(gate.getJSONArray("connections")));
+			}
+			for (Object o2 : gate.getJSONArray("pins")){
+				JSONObject pin = (JSONObject)o2;
+				JSONObject pr = pin.getJSONObject("rect");
+				data.addPin(pin.getInt("id"), pr.getDouble("x"), pr.getDouble("y"), pr.getDouble("w"), pr.getDouble("h"), pin.getBoolean("doInput"), toIntArray(pin.getJSONArray("attached")));
+			}
+		}
+		for (Object o : json.getJSONArray("wires")){
+			JSONObject wire = (JSONObject)o;
+			JSONArray ps = wire.getJSONArray("points");
+			double[] points = new double[ps.length()*2];
+			for (int i = 0; i < ps.length(); i++){
+				points[i*2] = ps.getJSONObject(i).getDouble("x");
+				points[i*2+1] = ps.getJSONObject(i).getDouble("y");
+			}
+			data.addWire(wire.getInt("pin1"), wire.getInt("pin2"), points);
+		}
+		if (json.has("chipName")){
+			JSONObject color = json.getJSONObject("color");
+			data.setChip(json.getString("chipName"), color.getDouble("red"), color.getDouble("green"), color.getDouble("blue"));
+		}
+		return data;
+	}
+
+	private static int[] toIntArray(JSONArray array){
+		int[] output = new int[array.length()];
+		for (int i = 0; i < output.length; i++){
+			output[i] = array.getInt(i);
+		}
+		return output;
+	}
+
+	private static JSONObject toJSONRect(double[] rects, int i){
+		JSONObject r = new JSONObject();
+		r.put("x", rects[i*4]);
+		r.put("y", rects[i*4+1]);
+		r.put("w", rects[i*4+2]);
+		r.put("h", rects[i*4+3]);
+		return r;
+	}
+
+	/**
+	 * @return the same JSON object the application writes when it saves this circuit
+	 */
+	public JSONObject toJSON(){
+		JSONObject json = new JSONObject();
+		JSONArray gates = new JSONArray();
+		for (int g = 0; g < this.gateCount; g++){
+			JSONObject gate = new JSONObject();
+			gate.put("name", this.gateNames[g]);
+			gate.put("rect", toJSONRect(this.gateRects, g));
+			if (hasGateColor(g)){
+				JSONObject c = new JSONObject();
+				c.put("red", this.gateColors[g*3]);
+				c.put("green", this.gateColors[g*3+1]);
+				c.put("blue", this.gateColors[g*3+2]);
+				gate.put("color", c);
+			}
+			JSONArray pins = new JSONArray();
+			for (int p = this.pinStart[g]; p < this.pinStart[g+1]; p++){
+				JSONObject pin = new JSONObject();
+				pin.put("id", this.pinIds[p]);
+				pin.put("rect", toJSONRect(this.pinRects, p));
+				pin.put("doInput", this.pinInputs[p]);
+				JSONArray array = new JSONArray();
+				for (int i = this.attachedStart[p]; i < this.attachedStart[p+1]; i++){
+					array.put(this.attached[i]);
+				}
+				pin.put("attached", array);
+				pins.put(pin);
+			}
+			gate.put("pins", pins);
+			gate.put("label", this.labels[g]);
+			if (this.fileNames[g] != null){
+				gate.put("fileName", this.fileNames[g]);
+			}
+			if (isBus(g)){
+				gate.put("id", this.busIds[g]);
+				gate.put("connections", new JSONArray(this.busConnections[g]));
+			}
+			gates.put(gate);
+		}
+		json.put("gates", gates);
+		JSONArray wires = new JSONArray();
+		for (int w = 0; w < this.wireCount; w++){
+			JSONObject wire = new JSONObject();
+			wire.put("pin1", this.wirePins[w*2]);
+			wire.put("pin2", this.wirePins[w*2+1]);
+			JSONArray ps = new JSONArray();
+			for (int i = 0; i < getPointCount(w); i++){
+				JSONObject o = new JSONObject();
+				o.put("x", getPointX(w, i));
+				o.put("y", getPointY(w, i));
+				ps.put(o);
+			}
+			wire.put("points", ps);
+			wires.put(wire);
+		}
+		json.put("wires", wires);
+		if (this.chipName != null){
+			json.put("chipName", this.chipName);
+			JSONObject cl = new JSONObject();
+			cl.put("red", this.chipColor[0]);
+			cl.put("green", this.chipColor[1]);
+			cl.put("blue", this.chipColor[2]);
+			json.put("color", cl);
+		}
+		return json;
+	}
+}
@@ -0,0 +1,236 @@
+package com.orangomango.logicsim.io;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.io.*;
+
+/**
+ * Finds every chip file a circuit depends on before anything is built. The fileName references
+ * are followed once, the files of the same depth are read in parallel when an executor is set.
+ * All the missing files, unreadable files and circular dependencies are reported together,
+ * otherwise the chip files are available in dependency order.
+ */
+public class DependencyResolver{
+	/**
+	 * Reads a chip file, so that the files can be read through a cache
+	 */
+	public static interface Source{
+		CircuitData read(File file) throws IOException;
+	}
+
+	private Source source;
+	private ExecutorService executor;
+	private BiConsumer<Integer, Integer> progressListener;
+
+	private Map<File, List<File>> graph = new LinkedHashMap<>(); // file -> chip files it uses
+	private Map<File, Set<File>> missing = new LinkedHashMap<>(); // missing file -> files using it
+	private Map<File, String> invalid = new LinkedHashMap<>();
+	private List<List<File>> cycles = new ArrayList<>();
+	private List<File> order = new ArrayList<>();
+
+	public DependencyResolver(Source source){
+		this.source = source;
+	}
+
+	/**
+	 * Read the files of the same depth in parallel
+	 */
+	public void setExecutor(ExecutorService executor){
+		this.executor = executor;
+	}
+
+	/**
+	 * @param listener called with the number of files read and the number of files found so far
+	 */
+	public void setProgressListener(BiConsumer<Integer, Integer> listener){
+		this.progressListener = listener;
+	}
+
+	/**
+	 * @param data the content of the file, it is not read again
+	 * @throws IOException describing every problem found
+	 */
+	public void resolve(File file, CircuitData data) throws IOException{
+		File root = file.getCanonicalFile();
+		this.graph.clear();
+		this.missing.clear();
+		this.invalid.clear();
+		this.cycles.clear();
+		this.order.clear();
+
+		Set<File> found = new HashSet<>();
+		found.add(root);
+		List<File> level = scan(root, data, found);
+		int read = 0;
+		while (!level.isEmpty()){
+			Map<File, Future<CircuitData>> futures = new LinkedHashMap<>();
+			for (File chip : level){
+				futures.put(chip, submit(chip));
+			}
+			List<File> next = new ArrayList<>();
+			for (Map.Entry<File, Future<CircuitData>> entry : futures.entrySet()){
+				try {
+					next.addAll(scan(entry.getKey(), entry.getValue().get(), found));
+				} catch (ExecutionException ex){
+					this.invalid.put(entry.getKey(), ex.getCause().getMessage());
+					this.graph.put(entry.getKey(), List.of());
+				} catch (InterruptedException ex){
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while reading "+entry.getKey().getName());
+				}
+				read++;
+				if (this.progressListener != null) this.progressListener.accept(read, found.size()-1);
+			}
+			level = next;
+		}
+
+		sort();
+		this.order.remove(root);
+		if (!this.missing.isEmpty() || !this.invalid.isEmpty() || !this.cycles.isEmpty()){
+			throw new IOException(getReport());
+		}
+	}
+
+	private Future<CircuitData> submit(File file){
+		if (this.executor != null){
+			return this.executor.submit(() -> this.source.read(file));
+		}
+		CompletableFuture<CircuitData> future = new CompletableFuture<>();
+		try {
+			future.complete(this.source.read(file));
+		} catch (IOException ex){
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	/**
+	 * Add the references of a file to the graph
+	 * @return the files found for the first time
+	 */
+	private List<File> scan(File file, CircuitData data, Set<File> found) throws IOException{
+		List<File> dependencies = new ArrayList<>();
+		List<File> output = new ArrayList<>();
+		for (int i = 0; i < data.getGateCount(); i++){
+			if (data.getFileName(i) == null) continue;
+			File chip = new File(file.getParent(), data.getFileName(i)).getCanonicalFile();
+			if (dependencies.contains(chip)) continue;
+			dependencies.add(chip);
+			if (!chip.exists()){
+				this.missing.computeIfAbsent(chip, k -> new LinkedHashSet<>()).add(file);
+			} else if (found.add(chip)){
+				output.add(chip);
+			}
+		}
+		this.graph.put(file, dependencies);
+		return output;
+	}
+
+	// Tarjan's algorithm, the components are completed in dependency order
+
+	private Map<File, Integer> index = new HashMap<>();
+	private Map<File, Integer> lowLink = new HashMap<>();
+	private Deque<File> stack = new ArrayDeque<>();
+
+	private void sort(){
+		this.index.clear();
+		this.lowLink.clear();
+		this.stack.clear();
+		for (File file : this.graph.keySet()){
+			if (!this.index.containsKey(file)) connect(file);
+		}
+	}
+
+	private void connect(File file){
+		this.index.put(file, this.index.size());
+		this.lowLink.put(file, this.index.get(file));
+		this.stack.push(file);
+		for (File next : this.graph.get(file)){
+			if (!this.graph.containsKey(next)) continue; // Missing
+			if (!this.index.containsKey(next)){
+				connect(next);
+				this.lowLink.put(file, Math.min(this.lowLink.get(file), this.lowLink.get(next)));
+			} else if (this.stack.contains(next)){
+				this.lowLink.put(file, Math.min(this.lowLink.get(file), this.index.get(next)));
+			}
+		}
+		if (this.lowLink.get(file).equals(this.index.get(file))){
+			Set<File> component = new HashSet<>();
+			File member;
+			do {
+				member = this.stack.pop();
+				component.add(member);
+				this.order.add(member);
+			} while (member != file);
+			if (component.size() > 1 || this.graph.get(file).contains(file)){
+				this.cycles.add(findCycle(file, component));
+			}
+		}
+	}
+
+	/**
+	 * @return the files of a cycle going through the given file, the file is repeated at the end
+	 */
+	private List<File> findCycle(File start, Set<File> component){
+		Map<File, File> previous = new HashMap<>();
+		Deque<File> queue = new ArrayDeque<>();
+		queue.add(start);
+		while (!queue.isEmpty()){
+			File file = queue.poll();
+			for (File next : this.graph.get(file)){
+				if (next.equals(start)){
+					LinkedList<File> cycle = new LinkedList<>();
+					cycle.add(start);
+					for (File f = file; f != null; f = previous.get(f)){
+						cycle.addFirst(f);
+					}
+					return cycle;
+				}
+				if (component.contains(next) && !previous.containsKey(next)){
+					previous.put(next, file);
+					queue.add(next);
+				}
+			}
+		}
+		return List.of(start, start);
+	}
+
+	/**
+	 * @return the chip files in dependency order, every file comes after the files it uses
+	 */
+	public List<File> getOrder(){
+		return this.order;
+	}
+
+	public Map<File, Set<File>> getMissing(){
+		return this.missing;
+	}
+
+	public Map<File, String> getInvalid(){
+		return this.invalid;
+	}
+
+	public List<List<File>> getCycles(){
+		return this.cycles;
+	}
+
+	public String getReport(){
+		StringBuilder builder = new StringBuilder();
+		if (!this.missing.isEmpty()){
+			builder.append("Missing files:\n");
+			this.missing.forEach((file, users) -> builder.append("  "+file.getName()+" (used by "+String.join(", ", users.stream().map(File::getName).toList())+")\n"));
+		}
+		if (!this.invalid.isEmpty()){
+			builder.append("Invalid files:\n");
+			this.invalid.forEach((file, message) -> builder.append("  "+file.getName()+": "+message+"\n"));
+		}
+		if (!this.cycles.isEmpty()){
+			builder.append("Circular dependencies:\n");
+			for (List<File> cycle : this.cycles){
+				builder.append("  "+String.join(" -> ", cycle.stream().map(File::getName).toList())+"\n");
+			}
+		}
+		return builder.toString().trim();
+	}
+}
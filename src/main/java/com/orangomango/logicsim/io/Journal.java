@@ -0,0 +1,358 @@
+package com.orangomango.logicsim.io;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.BiConsumer;
+import org.json.JSONObject;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Append-only log of the edits made to a circuit file, stored next to it as "<file>.journal".
+ * Every edit is one JSON line, so saving an edit costs as much as the edit and not as much as
+ * the whole circuit. The first line identifies the version of the file the records apply to,
+ * a journal that does not match its file is ignored. Once enough records are written they are
+ * folded into the file by a background thread.
+ * Gates and wires are referred to by their index in the file, which is also their index in the
+ * lists of the editor.
+ */
+public class Journal implements Closeable{
+	public static final int COMPACT_THRESHOLD = 256;
+
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "journal-compactor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private File file, journalFile;
+	private BiConsumer<String, String> errorHandler;
+	private OutputStream output;
+	private int records;
+	private boolean compacting;
+	private final Object compactLock = new Object(); // Held while the circuit file is written
+
+	/**
+	 * Keep writing to the journal of the file if it is still valid, start a new one otherwise
+	 * @param errorHandler called with a title and a message when an edit can't be recorded, also from the compactor thread
+	 */
+	public Journal(File file, BiConsumer<String, String> errorHandler) throws IOException{
+		this.file = file;
+		this.errorHandler = errorHandler;
+		this.journalFile = getJournalFile(file);
+		List<JSONObject> existing = readRecords(file);
+		if (existing == null){
+			reset();
+		} else {
+			this.records = existing.size();
+			this.output = new FileOutputStream(this.journalFile, true);
+		}
+	}
+
+	public static File getJournalFile(File file){
+		return new File(file.getParent(), file.getName()+".journal");
+	}
+
+	public File getFile(){
+		return this.file;
+	}
+
+	/**
+	 * @return the number of records that are not folded into the file yet
+	 */
+	public synchronized int getRecordCount(){
+		return this.records;
+	}
+
+	// Records
+
+	public void gateAdded(JSONObject gate){
+		append(record("addGate").put("gate", gate));
+	}
+
+	public void gateRemoved(int index){
+		append(record("removeGate").put("index", index));
+	}
+
+	/**
+	 * The pins of the gate are moved by the same amount
+	 */
+	public void gateMoved(int index, double x, double y){
+		append(record("moveGate").put("index", index).put("x", x).put("y", y));
+	}
+
+	public void labelChanged(int index, String label){
+		append(record("label").put("index", index).put("label", label));
+	}
+
+	/**
+	 * Any other change, the whole gate is replaced
+	 */
+	public void gateChanged(int index, JSONObject gate){
+		append(record("setGate").put("index", index).put("gate", gate));
+	}
+
+	/**
+	 * The two pins of the wire are attached to each other
+	 */
+	public void wireAdded(JSONObject wire){
+		append(record("addWire").put("wire", wire));
+	}
+
+	/**
+	 * The two pins of the wire are detached from each other
+	 */
+	public void wireRemoved(int index){
+		append(record("removeWire").put("index", index));
+	}
+
+	public void wireChanged(int index, JSONObject wire){
+		append(record("setWire").put("index", index).put("wire", wire));
+	}
+
+	private static JSONObject record(String op){
+		JSONObject json = new JSONObject();
+		json.put("op", op);
+		return json;
+	}
+
+	private void append(JSONObject record){
+		boolean compact;
+		synchronized (this){
+			if (this.output == null) return;
+			try {
+				this.output.write((record.toString()+"\n").getBytes(StandardCharsets.UTF_8));
+				this.output.flush();
+			} catch (IOException ex){
+				this.errorHandler.accept("Journal error", "Could not record the edit in "+this.file.getName()+": "+ex.getMessage());
+				return;
+			}
+			this.records++;
+			compact = this.records >= COMPACT_THRESHOLD && !this.compacting;
+			if (compact) this.compacting = true;
+		}
+		if (compact){
+			COMPACTOR.execute(() -> {
+				try {
+					compact();
+				} catch (IOException ex){
+					this.errorHandler.accept("Journal error", "Could not compact "+this.file.getName()+": "+ex.getMessage());
+				}
+			});
+		}
+	}
+
+	// Writing the file
+
+	/**
+	 * Write the whole circuit to the file and start an empty journal
+	 */
+	public void save(CircuitData data, boolean binary) throws IOException{
+		synchronized (this.compactLock){
+			synchronized (this){
+				write(data, binary);
+				reset();
+			}
+		}
+	}
+
+	/**
+	 * Fold the records into the file. Records written in the meantime are kept in the journal.
+	 */
+	public void compact() throws IOException{
+		synchronized (this.compactLock){
+			long length;
+			synchronized (this){
+				if (this.output == null) return;
+				length = this.journalFile.length();
+			}
+			try {
+				byte[] content = Files.readAllBytes(this.journalFile.toPath());
+				String journal = new String(content, 0, (int)Math.min(length, content.length), StandardCharsets.UTF_8);
+				List<JSONObject> records = parse(this.file, journal);
+				if (records == null || records.isEmpty()) return;
+				CircuitData data = CircuitData.read(this.file);
+				data = CircuitData.fromJSON(replay(data.toJSON(), records));
+				synchronized (this){
+					write(data, BinaryFormat.isBinary(this.file));
+					// Keep what was appended while the file was written
+					content = Files.readAllBytes(this.journalFile.toPath());
+					byte[] tail = Arrays.copyOfRange(content, (int)length, content.length);
+					reset();
+					this.output.write(tail);
+					this.output.flush();
+					this.records = parse(this.file, header(this.file)+new String(tail, StandardCharsets.UTF_8)).size();
+				}
+			} finally {
+				synchronized (this){
+					this.compacting = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write through a temporary file so that the file is never half written
+	 */
+	private void write(CircuitData data, boolean binary) throws IOException{
+		File temp = new File(this.file.getParent(), this.file.getName()+".tmp");
+		if (binary){
+			BinaryFormat.write(data, temp);
+		} else {
+			JsonFormat.write(data, temp);
+		}
+		try {
+			Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex){
+			Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void reset() throws IOException{
+		if (this.output != null) this.output.close();
+		this.output = new FileOutputStream(this.journalFile);
+		this.output.write(header(this.file).getBytes(StandardCharsets.UTF_8));
+		this.output.flush();
+		this.records = 0;
+	}
+
+	private static String header(File file){
+		JSONObject json = record("base");
+		json.put("length", file.length());
+		json.put("modified", file.lastModified());
+		return json.toString()+"\n";
+	}
+
+	/**
+	 * Fold the records into the file and stop writing
+	 */
+	@Override
+	public void close() throws IOException{
+		try {
+			compact();
+		} finally {
+			synchronized (this){
+				if (this.output != null){
+					this.output.close();
+					this.output = null;
+				}
+			}
+		}
+	}
+
+	// Reading
+
+	/**
+	 * Read a circuit file with the edits of its journal applied
+	 */
+	public static CircuitData read(File file) throws IOException{
+		CircuitData data = CircuitData.read(file);
+		List<JSONObject> records = readRecords(file);
+		if (records == null || records.isEmpty()){
+			return data;
+		}
+		return CircuitData.fromJSON(replay(data.toJSON(), records));
+	}
+
+	/**
+	 * @return the records of the journal of the file, null if there is no valid journal
+	 */
+	private static List<JSONObject> readRecords(File file) throws IOException{
+		File journal = getJournalFile(file);
+		if (!journal.exists()) return null;
+		return parse(file, Files.readString(journal.toPath(), StandardCharsets.UTF_8));
+	}
+
+	private static List<JSONObject> parse(File file, String journal){
+		String[] lines = journal.split("\n");
+		if (!lines[0].equals(header(file).trim())){
+			return null; // The file was written by something else
+		}
+		List<JSONObject> records = new ArrayList<>();
+		for (int i = 1; i < lines.length; i++){
+			try {
+				records.add(new JSONObject(lines[i]));
+			} catch (JSONException ex){
+				break; // The last record was not written completely
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Apply the records to a circuit in the JSON format of the files
+	 */
+	public static JSONObject replay(JSONObject circuit, List<JSONObject> records){
+		JSONArray gates = circuit.getJSONArray("gates");
+		JSONArray wires = circuit.getJSONArray("wires");
+		for (JSONObject record : records){
+			switch (record.getString("op")){
+				case "addGate":
+					gates.put(record.getJSONObject("gate"));
+					break;
+				case "removeGate":
+					gates.remove(record.getInt("index"));
+					break;
+				case "moveGate":
+					JSONObject gate = gates.getJSONObject(record.getInt("index"));
+					double dx = record.getDouble("x")-gate.getJSONObject("rect").getDouble("x");
+					double dy = record.getDouble("y")-gate.getJSONObject("rect").getDouble("y");
+					move(gate.getJSONObject("rect"), dx, dy);
+					for (Object pin : gate.getJSONArray("pins")){
+						move(((JSONObject)pin).getJSONObject("rect"), dx, dy);
+					}
+					break;
+				case "label":
+					gates.getJSONObject(record.getInt("index")).put("label", record.getString("label"));
+					break;
+				case "setGate":
+					gates.put(record.getInt("index"), record.getJSONObject("gate"));
+					break;
+				case "addWire":
+					JSONObject wire = record.getJSONObject("wire");
+					wires.put(wire);
+					attach(gates, wire.getInt("pin1"), wire.getInt("pin2"), true);
+					attach(gates, wire.getInt("pin2"), wire.getInt("pin1"), true);
+					break;
+				case "removeWire":
+					JSONObject removed = (JSONObject)wires.remove(record.getInt("index"));
+					attach(gates, removed.getInt("pin1"), removed.getInt("pin2"), false);
+					attach(gates, removed.getInt("pin2"), removed.getInt("pin1"), false);
+					break;
+				case "setWire":
+					wires.put(record.getInt("index"), record.getJSONObject("wire"));
+					break;
+			}
+		}
+		return circuit;
+	}
+
+	private static void move(JSONObject rect, double dx, double dy){
+		rect.put("x", rect.getDouble("x")+dx);
+		rect.put("y", rect.getDouble("y")+dy);
+	}
+
+	/**
+	 * Add or remove an id from the attached pins of a pin, missing pins are ignored
+	 */
+	private static void attach(JSONArray gates, int id, int other, boolean add){
+		for (Object g : gates){
+			for (Object p : ((JSONObject)g).getJSONArray("pins")){
+				JSONObject pin = (JSONObject)p;
+				if (pin.getInt("id") != id) continue;
+				JSONArray attached = pin.getJSONArray("attached");
+				for (int i = 0; i < attached.length(); i++){
+					if (attached.getInt(i) == other){
+						if (!add) attached.remove(i);
+						return;
+					}
+				}
+				if (add) attached.put(other);
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.orangomango.logicsim.io;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import com.orangomango.logicsim.io.JsonReader.Token;
+
+/**
+ * Reader and writer of the .lsim and .lsimc JSON files. The file is read token by token
+ * straight into a CircuitData, so neither the whole text nor a JSON tree is kept in memory.
+ * The keys of an object can be in any order, the fields that are needed together are kept
+ * until the end of their object.
+ */
+public final class JsonFormat{
+	private JsonFormat(){
+	}
+
+	public static CircuitData read(File file) throws IOException{
+		try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))){
+			return read(reader);
+		}
+	}
+
+	public static CircuitData read(JsonReader reader) throws IOException{
+		CircuitData data = new CircuitData();
+		String chipName = null;
+		double[] chipColor = null;
+		reader.expect(Token.BEGIN_OBJECT);
+		while (reader.next() == Token.NAME){
+			switch (reader.getString()){
+				case "gates":
+					reader.expect(Token.BEGIN_ARRAY);
+					while (reader.next() == Token.BEGIN_OBJECT){
+						readGate(reader, data);
+					}
+					break;
+				case "wires":
+					reader.expect(Token.BEGIN_ARRAY);
+					double[] points = new double[16];
+					while (reader.next() == Token.BEGIN_OBJECT){
+						points = readWire(reader, data, points);
+					}
+					break;
+				case "chipName":
+					reader.expect(Token.STRING);
+					chipName = reader.getString();
+					break;
+				case "color":
+					chipColor = readColor(reader);
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		reader.expect(Token.END_DOCUMENT);
+		if (chipName != null){
+			if (chipColor == null) throw new IOException("Missing chip color");
+			data.setChip(chipName, chipColor[0], chipColor[1], chipColor[2]);
+		}
+		return data;
+	}
+
+	public static void write(CircuitData data, File file) throws IOException{
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))){
+			writer.write(data.toJSON().toString(4));
+		}
+	}
+
+	private static void readGate(JsonReader reader, CircuitData data) throws IOException{
+		int g = data.addGate(null, 0, 0, 0, 0, null);
+		boolean hasRect = false;
+		int busId = 0;
+		int[] connections = null;
+		int[] attached = new int[8];
+		while (reader.next() == Token.NAME){
+			switch (reader.getString()){
+				case "name":
+					reader.expect(Token.STRING);
+					data.setGateName(g, reader.getString());
+					break;
+				case "label":
+					reader.expect(Token.STRING);
+					data.setLabel(g, reader.getString());
+					break;
+				case "fileName":
+					reader.expect(Token.STRING);
+					data.setFileName(g, reader.getString());
+					break;
+				case "rect":
+					double[] rect = readRect(reader);
+					data.setGateRect(g, rect[0], rect[1], rect[2], rect[3]);
+					hasRect = true;
+					break;
+				case "color":
+					double[] color = readColor(reader);
+					data.setGateColor(g, color[0], color[1], color[2]);
+					break;
+				case "id":
+					reader.expect(Token.NUMBER);
+					busId = reader.getInt();
+					break;
+				case "connections":
+					connections = readInts(reader, new int[4]);
+					break;
+				case "pins":
+					// Pins are appended to the last gate, which is this one
+					reader.expect(Token.BEGIN_ARRAY);
+					while (reader.next() == Token.BEGIN_OBJECT){
+						attached = readPin(reader, data, attached);
+					}
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		if (data.getGateName(g) == null || data.getLabel(g) == null || !hasRect){
+			throw new IOException("Incomplete gate #"+g);
+		}
+		if (connections != null){
+			data.setBus(g, busId, connections);
+		}
+	}
+
+	/**
+	 * @param attached buffer for the attached ids, reused between the pins
+	 * @return the buffer, grown if needed
+	 */
+	private static int[] readPin(JsonReader reader, CircuitData data, int[] attached) throws IOException{
+		int id = -1;
+		double[] rect = null;
+		boolean input = false;
+		int attachedCount = 0;
+		while (reader.next() == Token.NAME){
+			switch (reader.getString()){
+				case "id":
+					reader.expect(Token.NUMBER);
+					id = reader.getInt();
+					break;
+				case "rect":
+					rect = readRect(reader);
+					break;
+				case "doInput":
+					reader.expect(Token.BOOLEAN);
+					input = reader.getBoolean();
+					break;
+				case "attached":
+					reader.expect(Token.BEGIN_ARRAY);
+					attachedCount = 0;
+					while (reader.next() == Token.NUMBER){
+						if (attachedCount == attached.length) attached = Arrays.copyOf(attached, attachedCount*2);
+						attached[attachedCount++] = reader.getInt();
+					}
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		if (id < 0 || rect == null){
+			throw new IOException("Incomplete pin in gate #"+(data.getGateCount()-1));
+		}
+		data.addPin(id, rect[0], rect[1], rect[2], rect[3], input, Arrays.copyOf(attached, attachedCount));
+		return attached;
+	}
+
+	/**
+	 * @param points buffer for the coordinates, reused between the wires
+	 * @return the buffer, grown if needed
+	 */
+	private static double[] readWire(JsonReader reader, CircuitData data, double[] points) throws IOException{
+		int pin1 = -1, pin2 = -1;
+		int pointCount = 0;
+		while (reader.next() == Token.NAME){
+			switch (reader.getString()){
+				case "pin1":
+					reader.expect(Token.NUMBER);
+					pin1 = reader.getInt();
+					break;
+				case "pin2":
+					reader.expect(Token.NUMBER);
+					pin2 = reader.getInt();
+					break;
+				case "points":
+					reader.expect(Token.BEGIN_ARRAY);
+					pointCount = 0;
+					while (reader.next() == Token.BEGIN_OBJECT){
+						if (pointCount*2 == points.length) points = Arrays.copyOf(points, points.length*2);
+						readPoint(reader, points, pointCount*2);
+						pointCount++;
+					}
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+		if (pin1 < 0 || pin2 < 0){
+			throw new IOException("Incomplete wire #"+data.getWireCount());
+		}
+		data.addWire(pin1, pin2, Arrays.copyOf(points, pointCount*2));
+		return points;
+	}
+
+	private static void readPoint(JsonReader reader, double[] points, int offset) throws IOException{
+		while (reader.next() == Token.NAME){
+			switch (reader.getString()){
+				case "x":
+					reader.expect(Token.NUMBER);
+					points[offset] = reader.getNumber();
+					break;
+				case "y":
+					reader.expect(Token.NUMBER);
+					points[offset+1] = reader.getNumber();
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @return x, y, w and h
+	 */
+	private static double[] readRect(JsonReader reader) throws IOException{
+		return readFields(reader, "x", "y", "w", "h");
+	}
+
+	/**
+	 * @return red, green and blue
+	 */
+	private static double[] readColor(JsonReader reader) throws IOException{
+		return readFields(reader, "red", "green", "blue");
+	}
+
+	private static double[] readFields(JsonReader reader, String... keys) throws IOException{
+		double[] values = new double[keys.length];
+		reader.expect(Token.BEGIN_OBJECT);
+		while (reader.next() == Token.NAME){
+			int index = Arrays.asList(keys).indexOf(reader.getString());
+			if (index < 0){
+				reader.skipValue();
+			} else {
+				reader.expect(Token.NUMBER);
+				values[index] = reader.getNumber();
+			}
+		}
+		return values;
+	}
+
+	private static int[] readInts(JsonReader reader, int[] buffer) throws IOException{
+		int count = 0;
+		reader.expect(Token.BEGIN_ARRAY);
+		while (reader.next() == Token.NUMBER){
+			if (count == buffer.length) buffer = Arrays.copyOf(buffer, count*2);
+			buffer[count++] = reader.getInt();
+		}
+		return Arrays.copyOf(buffer, count);
+	}
+}
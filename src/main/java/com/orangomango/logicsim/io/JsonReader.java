@@ -0,0 +1,272 @@
+package com.orangomango.logicsim.io;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Pull parser for JSON documents: the caller asks for one token at a time, so
+ * nothing but the current token and the open containers are kept in memory.
+ * Separators, brackets and trailing content are checked like a full parser does.
+ */
+public class JsonReader implements Closeable{
+	public static enum Token{
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	// What can come next in the current container
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int NONEMPTY_OBJECT = 3;
+	private static final int DANGLING_NAME = 4; // A name was read, its value comes next
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int position, limit;
+	private long offset; // Characters consumed before the buffer
+	private final StringBuilder text = new StringBuilder();
+	private boolean bool;
+	private int[] stack = new int[32];
+	private int depth; // Index of the current container in the stack, 0 is the document
+
+	public JsonReader(Reader reader){
+		this.reader = reader;
+		this.stack[0] = EMPTY_DOCUMENT;
+	}
+
+	private boolean fill() throws IOException{
+		this.offset += this.limit;
+		this.position = 0;
+		this.limit = Math.max(0, this.reader.read(this.buffer));
+		return this.limit > 0;
+	}
+
+	/**
+	 * @return the next character that is not a whitespace without consuming it, -1 at the end
+	 */
+	private int peek() throws IOException{
+		while (true){
+			if (this.position == this.limit && !fill()) return -1;
+			char c = this.buffer[this.position];
+			if (c == ' ' || c == '\n' || c == '\r' || c == '\t'){
+				this.position++;
+			} else {
+				return c;
+			}
+		}
+	}
+
+	private char read() throws IOException{
+		if (this.position == this.limit && !fill()){
+			throw error("Unexpected end of file");
+		}
+		return this.buffer[this.position++];
+	}
+
+	private IOException error(String message){
+		return new IOException(message+" at character "+(this.offset+this.position));
+	}
+
+	private static String describe(int c){
+		return c == -1 ? "end of file" : "'"+(char)c+"'";
+	}
+
+	private void push(int state){
+		if (++this.depth == this.stack.length){
+			this.stack = Arrays.copyOf(this.stack, this.stack.length*2);
+		}
+		this.stack[this.depth] = state;
+	}
+
+	public Token next() throws IOException{
+		int c = peek();
+		switch (this.stack[this.depth]){
+			case EMPTY_DOCUMENT:
+				this.stack[this.depth] = NONEMPTY_DOCUMENT;
+				return readValue(c);
+			case NONEMPTY_DOCUMENT:
+				if (c != -1) throw error("Unexpected "+describe(c)+" after the end of the document");
+				return Token.END_DOCUMENT;
+			case EMPTY_ARRAY:
+			case NONEMPTY_ARRAY:
+				if (c == ']'){
+					this.position++;
+					this.depth--;
+					return Token.END_ARRAY;
+				}
+				if (this.stack[this.depth] == NONEMPTY_ARRAY){
+					if (c != ',') throw error("Expected ',' or ']' instead of "+describe(c));
+					this.position++;
+					c = peek();
+				}
+				this.stack[this.depth] = NONEMPTY_ARRAY;
+				return readValue(c);
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				if (c == '}'){
+					this.position++;
+					this.depth--;
+					return Token.END_OBJECT;
+				}
+				if (this.stack[this.depth] == NONEMPTY_OBJECT){
+					if (c != ',') throw error("Expected ',' or '}' instead of "+describe(c));
+					this.position++;
+					c = peek();
+				}
+				if (c != '"') throw error("Expected a name instead of "+describe(c));
+				this.position++;
+				readString();
+				c = peek();
+				if (c != ':') throw error("Expected ':' instead of "+describe(c));
+				this.position++;
+				this.stack[this.depth] = DANGLING_NAME;
+				return Token.NAME;
+			default: // DANGLING_NAME
+				this.stack[this.depth] = NONEMPTY_OBJECT;
+				return readValue(c);
+		}
+	}
+
+	private Token readValue(int c) throws IOException{
+		switch (c){
+			case -1:
+				throw error("Unexpected end of file");
+			case '{':
+				this.position++;
+				push(EMPTY_OBJECT);
+				return Token.BEGIN_OBJECT;
+			case '[':
+				this.position++;
+				push(EMPTY_ARRAY);
+				return Token.BEGIN_ARRAY;
+			case '"':
+				this.position++;
+				readString();
+				return Token.STRING;
+			case 't':
+			case 'f':
+			case 'n':
+				readWord();
+				String word = this.text.toString();
+				if (word.equals("null")) return Token.NULL;
+				if (!word.equals("true") && !word.equals("false")) throw error("Unexpected "+word);
+				this.bool = word.equals("true");
+				return Token.BOOLEAN;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')){
+					readWord();
+					return Token.NUMBER;
+				}
+				throw error("Expected a value instead of "+describe(c));
+		}
+	}
+
+	private void readString() throws IOException{
+		this.text.setLength(0);
+		while (true){
+			char c = read();
+			if (c == '"') return;
+			if (c == '\\'){
+				c = read();
+				switch (c){
+					case 'b': c = '\b'; break;
+					case 'f': c = '\f'; break;
+					case 'n': c = '\n'; break;
+					case 'r': c = '\r'; break;
+					case 't': c = '\t'; break;
+					case 'u':
+						char[] hex = {read(), read(), read(), read()};
+						try {
+							c = (char)Integer.parseInt(new String(hex), 16);
+						} catch (NumberFormatException ex){
+							throw error("Invalid escape sequence");
+						}
+						break;
+				}
+			}
+			this.text.append(c);
+		}
+	}
+
+	private void readWord() throws IOException{
+		this.text.setLength(0);
+		while (true){
+			if (this.position == this.limit && !fill()) return;
+			char c = this.buffer[this.position];
+			if (c == ',' || c == ':' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') return;
+			this.text.append(c);
+			this.position++;
+		}
+	}
+
+	/**
+	 * @return the value of the last NAME or STRING token
+	 */
+	public String getString(){
+		return this.text.toString();
+	}
+
+	/**
+	 * @return the value of the last NUMBER token
+	 */
+	public double getNumber() throws IOException{
+		try {
+			return Double.parseDouble(this.text.toString());
+		} catch (NumberFormatException ex){
+			throw error("Invalid number "+this.text);
+		}
+	}
+
+	public int getInt() throws IOException{
+		double value = getNumber();
+		if (value != (int)value){
+			throw error("Expected an integer instead of "+this.text);
+		}
+		return (int)value;
+	}
+
+	/**
+	 * @return the value of the last BOOLEAN token
+	 */
+	public boolean getBoolean(){
+		return this.bool;
+	}
+
+	/**
+	 * Read the next token and fail if it is not the expected one
+	 */
+	public void expect(Token token) throws IOException{
+		Token t = next();
+		if (t != token){
+			throw error("Expected "+token+" instead of "+t);
+		}
+	}
+
+	/**
+	 * Skip the next value, objects and arrays included
+	 */
+	public void skipValue() throws IOException{
+		int depth = 0;
+		do {
+			switch (next()){
+				case BEGIN_OBJECT:
+				case BEGIN_ARRAY:
+					depth++;
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					depth--;
+					break;
+				default:
+					break;
+			}
+		} while (depth > 0);
+	}
+
+	@Override
+	public void close() throws IOException{
+		this.reader.close();
+	}
+}
@@ -14,6 +14,7 @@ import javafx.scene.Cursor;
 
 import com.orangomango.logicsim.core.Chip;
 import com.orangomango.logicsim.core.Gate;
+import com.orangomango.logicsim.core.SpatialIndex;
 import com.orangomango.logicsim.MainApplication;
 
 public class ChipCanvas{
@@ -25,9 +26,13 @@ public class ChipCanvas{
 	private Timeline loop;
 	private double cameraX, cameraY;
 	private Point2D movePoint, deltaMove = new Point2D(0, 0);
+	private SpatialIndex<Gate> index = new SpatialIndex<>();
 
 	public ChipCanvas(Chip c){
 		this.chip = c;
+		for (Gate g : this.chip.getGates()){
+			this.index.put(g, g.getRect()); // The inside of a chip never changes
+		}
 	}
 
 	public StackPane getPane(){
@@ -47,7 +52,7 @@ public class ChipCanvas{
 				}
 				clickPoint = clickPoint.multiply(1/this.scale);
 				Gate found = null;
-				for (Gate g : this.chip.getGates()){
+				for (Gate g : this.index.query(clickPoint.getX(), clickPoint.getY())){
 					if (g.getRect().contains(clickPoint.getX(), clickPoint.getY())){
 						found = g;
 						break;
@@ -0,0 +1,63 @@
+package com.orangomango.logicsim.ui;
+
+import javafx.geometry.Rectangle2D;
+
+import java.util.*;
+
+/**
+ * Areas of the main canvas that changed since the last frame, in world coordinates.
+ * Areas can be added from any thread, overlapping areas are merged and too many areas
+ * become their bounding box.
+ */
+public class DirtyRegions{
+	private static final int MAX_REGIONS = 32;
+
+	private List<Rectangle2D> regions = new ArrayList<>();
+	private boolean full = true;
+
+	public synchronized void add(Rectangle2D rect){
+		if (this.full) return;
+		for (int i = 0; i < this.regions.size(); i++){
+			Rectangle2D region = this.regions.get(i);
+			if (region.intersects(rect)){
+				rect = union(region, rect);
+				this.regions.remove(i);
+				i = -1; // The union can overlap the areas already checked
+			}
+		}
+		this.regions.add(rect);
+		if (this.regions.size() > MAX_REGIONS){
+			Rectangle2D bounds = this.regions.get(0);
+			for (Rectangle2D region : this.regions){
+				bounds = union(bounds, region);
+			}
+			this.regions.clear();
+			this.regions.add(bounds);
+		}
+	}
+
+	/**
+	 * Everything has to be drawn again, for example after the camera moved
+	 */
+	public synchronized void invalidate(){
+		this.full = true;
+		this.regions.clear();
+	}
+
+	/**
+	 * Get the areas to draw and start collecting the next ones
+	 * @return the areas to draw, empty if nothing changed and null if everything has to be drawn
+	 */
+	public synchronized List<Rectangle2D> take(){
+		List<Rectangle2D> output = this.full ? null : this.regions;
+		this.full = false;
+		this.regions = new ArrayList<>();
+		return output;
+	}
+
+	private static Rectangle2D union(Rectangle2D a, Rectangle2D b){
+		double minX = Math.min(a.getMinX(), b.getMinX());
+		double minY = Math.min(a.getMinY(), b.getMinY());
+		return new Rectangle2D(minX, minY, Math.max(a.getMaxX(), b.getMaxX())-minX, Math.max(a.getMaxY(), b.getMaxY())-minY);
+	}
+}
@@ -10,6 +10,8 @@ import javafx.util.Duration;
 
 import java.util.*;
 
+import com.orangomango.logicsim.Util;
+
 public class SideArea{
 	private GraphicsContext gc;
 	private Rectangle2D closedButton, area;
@@ -25,7 +27,7 @@ public class SideArea{
 		this.gc = gc;
 		this.closedButton = closedBtn;
 		this.area = area;
-		this.btnImage = new Image(getClass().getResourceAsStream("/sidebutton.png"));
+		this.btnImage = Util.getImage("/sidebutton.png");
 	}
 
 	public void setButtonSize(double size){
@@ -51,6 +53,10 @@ public class SideArea{
 		return this.openedX == this.area.getWidth();
 	}
 
+	public boolean isAnimating(){
+		return this.animating;
+	}
+
 	public boolean onClick(double x, double y){
 		if (this.animating) return false;
 		final int moveAmount = 15;
@@ -0,0 +1,116 @@
+package com.orangomango.logicsim.ui;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.paint.Color;
+import javafx.geometry.Rectangle2D;
+
+import java.util.*;
+
+import com.orangomango.logicsim.core.Gate;
+import com.orangomango.logicsim.core.SpatialIndex;
+
+/**
+ * Bodies and labels of the gates drawn into cached tiles. Tiles are made for one zoom level,
+ * they are dropped when a gate on them changes or when the zoom changes. Moving the camera
+ * only draws the tiles that were not on the screen yet.
+ */
+public class StaticLayer{
+	private static final int TILE_SIZE = 512;
+	private static final int MAX_TILES = 64;
+
+	private SpatialIndex<Gate> index;
+	private Map<Long, WritableImage> tiles = new LinkedHashMap<>(16, 0.75f, true){
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, WritableImage> eldest){
+			return size() > MAX_TILES;
+		}
+	};
+	private Canvas canvas;
+	private SnapshotParameters parameters;
+	private double scale;
+
+	public StaticLayer(SpatialIndex<Gate> index){
+		this.index = index;
+		this.index.setListener(this::invalidate);
+	}
+
+	/**
+	 * Drop the tiles covering an area
+	 * @param area the area in world coordinates, null to drop every tile
+	 */
+	public void invalidate(Rectangle2D area){
+		if (area == null || this.tiles.isEmpty()){
+			this.tiles.clear();
+			return;
+		}
+		double size = TILE_SIZE/this.scale;
+		int minCol = (int)Math.floor(area.getMinX()/size);
+		int minRow = (int)Math.floor(area.getMinY()/size);
+		int maxCol = (int)Math.floor(area.getMaxX()/size);
+		int maxRow = (int)Math.floor(area.getMaxY()/size);
+		if ((long)(maxCol-minCol+1)*(maxRow-minRow+1) > this.tiles.size()){
+			this.tiles.keySet().removeIf(key -> {
+				int col = (int)(key >> 32);
+				int row = (int)(long)key;
+				return col >= minCol && col <= maxCol && row >= minRow && row <= maxRow;
+			});
+		} else {
+			for (int col = minCol; col <= maxCol; col++){
+				for (int row = minRow; row <= maxRow; row++){
+					this.tiles.remove(key(col, row));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draw the tiles covering an area, the context must already be scaled
+	 * @param area the visible area in world coordinates
+	 */
+	public void render(GraphicsContext gc, Rectangle2D area, double scale){
+		if (scale != this.scale){
+			this.tiles.clear();
+			this.scale = scale;
+		}
+		double size = TILE_SIZE/scale;
+		int minCol = (int)Math.floor(area.getMinX()/size);
+		int minRow = (int)Math.floor(area.getMinY()/size);
+		int maxCol = (int)Math.floor(area.getMaxX()/size);
+		int maxRow = (int)Math.floor(area.getMaxY()/size);
+		for (int col = minCol; col <= maxCol; col++){
+			for (int row = minRow; row <= maxRow; row++){
+				WritableImage tile = this.tiles.get(key(col, row));
+				if (tile == null){
+					tile = buildTile(col*size, row*size, size);
+					this.tiles.put(key(col, row), tile);
+				}
+				gc.drawImage(tile, col*size, row*size, size, size);
+			}
+		}
+	}
+
+	private WritableImage buildTile(double x, double y, double size){
+		if (this.canvas == null){
+			this.canvas = new Canvas(TILE_SIZE, TILE_SIZE);
+			this.parameters = new SnapshotParameters();
+			this.parameters.setFill(Color.TRANSPARENT);
+		}
+		GraphicsContext gc = this.canvas.getGraphicsContext2D();
+		gc.clearRect(0, 0, TILE_SIZE, TILE_SIZE);
+		gc.save();
+		gc.scale(this.scale, this.scale);
+		gc.translate(-x, -y);
+		for (Gate g : this.index.query(new Rectangle2D(x, y, size, size))){
+			g.renderStatic(gc);
+		}
+		gc.restore();
+		return this.canvas.snapshot(this.parameters, null);
+	}
+
+	private static long key(int col, int row){
+		return ((long)col << 32) | (row & 0xffffffffL);
+	}
+}
@@ -3,6 +3,8 @@ module com.orangomango.logicsim{
 	requires javafx.swing;
 	requires java.desktop;
 	requires org.json;
+	requires java.management;
 
 	exports com.orangomango.logicsim;
+	exports com.orangomango.logicsim.engine;
 }